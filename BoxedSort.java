@@ -0,0 +1,241 @@
+// A sort for Double[], Long[] and Integer[], which QSort.sort(..) hands those arrays over to.
+// The order is the same as their compareTo(..), so for Doubles -0.0 comes before 0.0 and NaN comes last,
+// and the array ends up holding the same box objects, just rearranged.
+//
+// When QSort compares two boxes, it follows a reference to each of them, which are usually scattered
+// around the heap, and makes a virtual call to compareTo(..). Here each box is unboxed just once,
+// into a long[] key buffer (Doubles via KeyIndexSort.sortableBits(..)), and the keys are sorted by KeyIndexSort,
+// along with each key's original index. The boxes are then moved into that order, without looking inside them again.
+//
+// The buffers take 12 bytes per element, so they are bounded, by default to SCRATCH_ELMS elements, however long the array is.
+// A bigger array is first partitioned, unboxing as it goes, until each sub-array fits in the buffers,
+// and each sub-array is then sorted through them in turn, much as StringSort's prefix word cache works.
+// Like QSort's own sorts, these are recorded by SortInstrumentation, under the sorter name "BoxedSort".
+public class BoxedSort {
+	private final Object[]  m_arr;
+	private final BoxType   m_type;
+	private final long[]    m_keys;
+	private final int[]     m_order;
+	private final SortStats m_stats;   // null unless this sort is being instrumented.
+
+	// the default size of the key buffers, in elements.
+	public static final int SCRATCH_ELMS = 1 << 20;
+
+	private enum BoxType { DOUBLE, LONG, INTEGER }
+
+    //////////////////////////////////////////////////////////////////////////////
+    // Whether arr is one of the arrays we sort, i.e. a Double[], Long[] or Integer[].
+    // Those classes are final, so the arrays can only hold those boxes (or nulls).
+    public  static boolean isSupported(Object[] arr){
+    	return typeOf(arr) != null;
+    }
+    //////////////////////////////////////////////////////////////////////////////
+    public  static <S extends Comparable<S>> void sort(S[] arr, boolean ascending){
+    	sort(arr, ascending, SCRATCH_ELMS);
+    }
+    //////////////////////////////////////////////////////////////////////////////
+    // As sort(..) above, but with key buffers of at most maxScratchElms elements.
+    // With 0, or an array that isn't supported, we just q-sort the boxes as QSort would.
+    // Like compareTo(..), a null element gives a NullPointerException.
+    public  static <S extends Comparable<S>> void sort(S[] arr, boolean ascending, int maxScratchElms){
+
+    	if ( arr == null)
+    		return; // possibly could give a warning.
+
+    	BoxType type        = typeOf(arr);
+    	int     scratchElms = Math.min(maxScratchElms, arr.length);
+
+    	if ( type == null || scratchElms <= 0) {
+    		QSort.sort(arr, ascending, PartitionScheme.SINGLE_PIVOT);
+    		return;
+    	}
+
+    	SortStats stats  = SortInstrumentation.start("BoxedSort", arr.length);
+    	int       budget = IntroSort.depthBudget(arr.length);
+
+    	if ( stats != null)
+    		stats.setDepthBudget(budget);
+
+    	new BoxedSort(arr, type, scratchElms, stats).sortSub(0, arr.length, budget);
+
+    	if ( ! ascending)
+    		reverseArr(arr);
+
+    	SortInstrumentation.finish(stats);
+    }
+    //////////////////////////////////////////////////////////////////////////////
+    private static BoxType typeOf(Object[] arr){
+
+    	if ( arr instanceof Double[])
+    		return BoxType.DOUBLE;
+
+    	if ( arr instanceof Long[])
+    		return BoxType.LONG;
+
+    	if ( arr instanceof Integer[])
+    		return BoxType.INTEGER;
+
+    	return null;
+    }
+    //////////////////////////////////////////////////////////////////////////////
+    private BoxedSort(Object[] arr, BoxType type, int scratchElms, SortStats stats){
+    	m_arr   = arr;
+    	m_type  = type;
+    	m_keys  = new long[scratchElms];
+    	m_order = new int[scratchElms];
+    	m_stats = stats;
+    }
+    //////////////////////////////////////////////////////////////////////////////
+    // The box's value as a long, such that the longs compare as the boxes do.
+    private long key(Object elm){
+
+    	switch ( m_type) {
+    		case DOUBLE: return KeyIndexSort.sortableBits((Double) elm);
+    		case LONG:   return (Long) elm;
+    		default:     return (Integer) elm;
+    	}
+    }
+    //////////////////////////////////////////////////////////////////////////////
+    // Sorts m_arr's elements between low inclusive and high exclusive.
+    // While the sub-array is too big for the key buffers we partition it around the median of three keys,
+    // recursing into the smaller side and looping round for the larger one.
+    private void sortSub(int low, int high, int depthBudget){
+
+    	while ( high - low > m_keys.length) {
+
+    		if ( depthBudget-- == 0) {
+    			if ( m_stats != null)
+    				m_stats.heapSorted();
+
+    			heapSort(low, high);
+    			return;
+    		}
+
+    		long pivot = medianOfThree(key(m_arr[low]), key(m_arr[(low + high) >>> 1]), key(m_arr[high - 1]));
+    		int  split = partition(low, high, pivot, false);
+
+    		// If nothing was less than the pivot, then the pivot is the smallest key, which may well be repeated many times,
+    		// so we split off the elements equal to it instead, which are then already in place.
+    		if ( split == low) {
+    			low = partition(low, high, pivot, true);
+    			continue;
+    		}
+
+    		if ( m_stats != null)
+    			m_stats.partitioned(high - low, Math.min(split - low, high - split), depthBudget);
+
+    		if ( split - low < high - split) {
+    			sortSub(low, split, depthBudget);
+    			low  = split;
+    		} else {
+    			sortSub(split, high, depthBudget);
+    			high = split;
+    		}
+    	}
+
+    	int numElms = high - low;
+
+    	for( int i = 0; i < numElms; i++)
+    		m_keys[i] = key(m_arr[low + i]);
+
+    	KeyIndexSort.sortRange(m_arr, low, m_keys, m_order, numElms);
+    }
+    //////////////////////////////////////////////////////////////////////////////
+    // Moves the elements between low inclusive and high exclusive whose keys are less than pivot
+    // (or less than or equal to it, if orEqual) to the front, and returns the index of the first of the others.
+    // As in QSort, we take one element out, and then move the hole this leaves back and forth,
+    // rather than swapping, so each element that needs moving is written once.
+    private int partition(int low, int high, long pivot, boolean orEqual){
+    	int lowIdx  = low;
+    	int highIdx = high;
+
+    	while ( lowIdx < highIdx && goesLow(m_arr[lowIdx], pivot, orEqual))
+    		lowIdx++;
+
+    	if ( lowIdx == highIdx)
+    		return lowIdx;
+
+    	Object temp = m_arr[lowIdx];  // the hole is now at lowIdx, and temp belongs in the high part.
+
+    	while ( true) {
+    		do {
+    			highIdx--;
+    		} while ( highIdx > lowIdx && !goesLow(m_arr[highIdx], pivot, orEqual));
+
+    		if ( highIdx == lowIdx)
+    			break;
+
+    		m_arr[lowIdx] = m_arr[highIdx];  // the hole moves to highIdx
+
+    		do {
+    			lowIdx++;
+    		} while ( lowIdx < highIdx && goesLow(m_arr[lowIdx], pivot, orEqual));
+
+    		if ( lowIdx == highIdx)
+    			break;
+
+    		m_arr[highIdx] = m_arr[lowIdx];  // the hole moves back to lowIdx
+    	}
+    	m_arr[lowIdx] = temp;
+    	return lowIdx;
+    }
+    //////////////////////////////////////////////////////////////////////////////
+    private boolean goesLow(Object elm, long pivot, boolean orEqual){
+    	long key = key(elm);
+
+    	return key < pivot || (orEqual && key == pivot);
+    }
+    //////////////////////////////////////////////////////////////////////////////
+    private static long medianOfThree(long k1, long k2, long k3){
+
+    	if ( (k2 > k1) == (k1 > k3))
+    		return k1;
+    	else if ( (k1 > k2) == (k2 > k3))
+    		return k2;
+    	else
+    		return k3;
+    }
+    ///////////////////////////////////////////////////////////////////////////
+    private void heapSort(int low, int high){
+    	int numElms = high - low;
+
+    	for( int i = numElms / 2 - 1; i >= 0; i--)
+    		siftDown(low, i, numElms);
+
+    	for( int last = numElms - 1; last > 0; last--){
+    		Object temp       = m_arr[low];
+    		m_arr[low]        = m_arr[low + last];
+    		m_arr[low + last] = temp;
+    		siftDown(low, 0, last);
+    	}
+    }
+    ///////////////////////////////////////////////////////////////////////////
+    private void siftDown(int low, int i, int numElms){
+    	Object elm = m_arr[low + i];
+    	long   key = key(elm);
+    	int    child;
+
+    	while ( (child = 2 * i + 1) < numElms){
+
+    		if ( child + 1 < numElms && key(m_arr[low + child + 1]) > key(m_arr[low + child]))
+    			child++;
+
+    		if ( key(m_arr[low + child]) <= key)
+    			break;
+
+    		m_arr[low + i] = m_arr[low + child];
+    		i              = child;
+    	}
+    	m_arr[low + i] = elm;
+    }
+    ///////////////////////////////////////////////////////////////////////////
+    private static void reverseArr(Object[] arr){
+
+    	for( int i = 0, j = arr.length - 1; i < j; i++, j--) {
+    		Object temp = arr[i];
+    		arr[i]      = arr[j];
+    		arr[j]      = temp;
+    	}
+    }
+    ///////////////////////////////////////////////////////////////////////////
+}
@@ -0,0 +1,97 @@
+// One or more arrays that are kept in step with the keys when co-sorting, 
+// see QSortDouble.coSort(..). Whenever a key is moved, the payload element at the same index
+// is moved in the same way, so the payload never needs boxing into row objects.
+// The methods follow the hole-moving scheme of the partitioning: 
+// at most one element per array is held out in a temp at any time.
+public interface CoSortPayload {
+	
+	// Takes the element at idx out into this payload's temp, leaving a hole at idx.
+	void save(int idx);
+	
+	// Copies the element at 'from' into the hole at 'to', so that the hole moves to 'from'.
+	void move(int from, int to);
+	
+	// Puts the element held in the temp back into the hole at idx.
+	void restore(int idx);
+	
+	// The number of elements, which must match the number of keys being sorted.
+	int length();
+	
+    ///////////////////////////////////////////////////////////////////////////
+	static CoSortPayload of(final int[] arr){
+		return new CoSortPayload(){
+			private int m_temp;
+			
+			public void save(int idx)            { m_temp = arr[idx]; }
+			public void move(int from, int to)   { arr[to] = arr[from]; }
+			public void restore(int idx)         { arr[idx] = m_temp; }
+			public int  length()                 { return arr.length; }
+		};
+	}
+    ///////////////////////////////////////////////////////////////////////////
+	static CoSortPayload of(final long[] arr){
+		return new CoSortPayload(){
+			private long m_temp;
+			
+			public void save(int idx)            { m_temp = arr[idx]; }
+			public void move(int from, int to)   { arr[to] = arr[from]; }
+			public void restore(int idx)         { arr[idx] = m_temp; }
+			public int  length()                 { return arr.length; }
+		};
+	}
+    ///////////////////////////////////////////////////////////////////////////
+	static CoSortPayload of(final double[] arr){
+		return new CoSortPayload(){
+			private double m_temp;
+			
+			public void save(int idx)            { m_temp = arr[idx]; }
+			public void move(int from, int to)   { arr[to] = arr[from]; }
+			public void restore(int idx)         { arr[idx] = m_temp; }
+			public int  length()                 { return arr.length; }
+		};
+	}
+    ///////////////////////////////////////////////////////////////////////////
+	static <T> CoSortPayload of(final T[] arr){
+		return new CoSortPayload(){
+			private T m_temp;
+			
+			public void save(int idx)            { m_temp = arr[idx]; }
+			public void move(int from, int to)   { arr[to] = arr[from]; }
+			public void restore(int idx)         { arr[idx] = m_temp; m_temp = null; }
+			public int  length()                 { return arr.length; }
+		};
+	}
+    ///////////////////////////////////////////////////////////////////////////
+	// Combines several payloads, e.g. an int[] of ids and a long[] of row offsets, so they all move together.
+	// They must all be the same length, which is then the combined payload's length.
+	static CoSortPayload of(final CoSortPayload... payloads){
+		
+		if ( payloads.length == 0)
+			throw new IllegalArgumentException("There must be at least one payload");
+		
+		final int length = payloads[0].length();
+		
+		for( CoSortPayload payload : payloads)
+			if ( payload.length() != length)
+				throw new IllegalArgumentException("The payloads have different lengths, " + payload.length() + " and " + length);
+		
+		return new CoSortPayload(){
+			
+			public void save(int idx){
+				for( CoSortPayload payload : payloads)
+					payload.save(idx);
+			}
+			public void move(int from, int to){
+				for( CoSortPayload payload : payloads)
+					payload.move(from, to);
+			}
+			public void restore(int idx){
+				for( CoSortPayload payload : payloads)
+					payload.restore(idx);
+			}
+			public int length(){
+				return length;
+			}
+		};
+	}
+}
@@ -0,0 +1,185 @@
+import java.util.Arrays;
+
+// Sorts the rows of columnar data by several key columns, e.g. by (region, score descending, timestamp),
+// where each column is a separate array, without building an object per row.
+//
+// Each KeyColumn encodes its values as normalized keys of just the bits it needs, and we pack all of the columns' keys
+// for a row, first column first, into one bit string, split over as few longs ("words") as it takes.
+// Comparing those words in turn, as unsigned longs, orders the rows just as comparing the columns one by one would,
+// so no comparison ever looks at the columns themselves. E.g. 8 regions, a double score and timestamps spanning
+// a year in milliseconds take 3 + 64 + 35 bits, i.e. two words.
+//
+// The rows are sorted on their first word by KeyIndexSort, carrying the row numbers along, which gives us the permutation.
+// Then each run of rows whose first words are equal is sorted on their second word, and so on,
+// so most rows are only ever compared on a single long.
+// Like QSort, it isn't stable: rows whose keys are all equal may end up in either order.
+public final class ColumnSort {
+	private final long[][] m_words;   // m_words[w][row] is word w of row's key, except for word 0, see below.
+	private final long[]   m_keys;    // the key words being sorted on, by position rather than by row.
+	private final int[]    m_order;   // m_order[i] is the row at position i.
+
+    ///////////////////////////////////////////////////////////////////////////
+	// Returns the permutation which sorts the rows, i.e. result[0] is the number of the first row in sorted order.
+	// The columns are left untouched.
+	public static int[] order(KeyColumn... columns){
+		int numRows = numRows(columns, null);
+
+		return new ColumnSort(columns, numRows).sortAll();
+	}
+    ///////////////////////////////////////////////////////////////////////////
+	// Sorts the rows in place, i.e. reorders the arrays of all of the key columns.
+	public static void sort(KeyColumn... columns){
+		sort(null, columns);
+	}
+    ///////////////////////////////////////////////////////////////////////////
+	// As above, also reordering payload, e.g. CoSortPayload.of(otherColumn1, otherColumn2..), which may be null.
+	public static void sort(CoSortPayload payload, KeyColumn... columns){
+		int             numRows  = numRows(columns, payload);
+		int[]           order    = new ColumnSort(columns, numRows).sortAll();
+		CoSortPayload[] payloads = new CoSortPayload[columns.length + (payload != null ? 1 : 0)];
+
+		for( int c = 0; c < columns.length; c++)
+			payloads[c] = columns[c].payload();
+
+		if ( payload != null)
+			payloads[columns.length] = payload;
+
+		applyOrder(CoSortPayload.of(payloads), order);
+	}
+    ///////////////////////////////////////////////////////////////////////////
+	private static int numRows(KeyColumn[] columns, CoSortPayload payload){
+
+		if ( columns.length == 0)
+			throw new IllegalArgumentException("There must be at least one key column");
+
+		int numRows = columns[0].length();
+
+		for( KeyColumn column : columns)
+			if ( column.length() != numRows)
+				throw new IllegalArgumentException("The key columns have different lengths, " + column.length() + " and " + numRows);
+
+		if ( payload != null && payload.length() != numRows)
+			throw new IllegalArgumentException("The payload has " + payload.length() + " elements, but there are " + numRows + " rows");
+
+		return numRows;
+	}
+    ///////////////////////////////////////////////////////////////////////////
+	// Encodes and packs the columns' keys, one column at a time.
+	private ColumnSort(KeyColumn[] columns, int numRows){
+		long[]   keys  = new long[numRows];
+		long[][] words = new long[0][];
+		int      pos   = 0;
+
+		for( KeyColumn column : columns) {
+			int numBits = column.encode(keys);
+
+			if ( numBits == 0)
+				continue;   // every row has the same value, so the column can't change the order.
+
+			// a column has at most 64 bits, so it needs at most one more word.
+			int numWords = (pos + numBits + 63) / 64;
+
+			if ( numWords > words.length) {
+				words               = Arrays.copyOf(words, numWords);
+				words[numWords - 1] = new long[numRows];
+			}
+			pack(words, keys, pos, numBits);
+			pos += numBits;
+		}
+
+		// KeyIndexSort compares signed longs, so we flip the top bits to make the unsigned order the signed one.
+		for( long[] word : words)
+			for( int row = 0; row < numRows; row++)
+				word[row] ^= Long.MIN_VALUE;
+
+		m_words = words;
+		m_order = new int[numRows];
+
+		for( int row = 0; row < numRows; row++)
+			m_order[row] = row;
+
+		// Word 0 is only ever needed in position order, and the positions start off as the rows,
+		// so it can be sorted where it is, and then reused for the later words of each run.
+		m_keys = ( words.length > 0 ? words[0] : null);
+	}
+    ///////////////////////////////////////////////////////////////////////////
+	// ORs the numBits-bit keys into every row's bit string, starting pos bits in from the top of word 0.
+	private static void pack(long[][] words, long[] keys, int pos, int numBits){
+		int    w    = pos >>> 6;
+		int    free = 64 - (pos & 63);   // the bits left in word w
+		long[] word = words[w];
+
+		if ( numBits <= free) {
+			for( int row = 0; row < keys.length; row++)
+				word[row] |= keys[row] << (free - numBits);
+		} else {
+			long[] next = words[w + 1];  // the keys straddle two words.
+
+			for( int row = 0; row < keys.length; row++) {
+				word[row] |= keys[row] >>> (numBits - free);
+				next[row] |= keys[row] << (64 - (numBits - free));
+			}
+		}
+	}
+    ///////////////////////////////////////////////////////////////////////////
+	private int[] sortAll(){
+
+		if ( m_keys != null)
+			sortWord(0, m_order.length, 0);
+
+		return m_order;
+	}
+    ///////////////////////////////////////////////////////////////////////////
+	// Sorts positions from inclusive to 'to' exclusive, whose earlier words are all equal, on word w,
+	// which m_keys must hold for those positions. Each run of equal words is then sorted on the next word.
+	// The recursion is at most one level per word, and as each run's end is found before it's sorted,
+	// the one m_keys array can be overwritten with the next word run by run.
+	private void sortWord(int from, int to, int w){
+
+		KeyIndexSort.sort(m_keys, m_order, from, to);
+
+		if ( w + 1 == m_words.length)
+			return;
+
+		long[] nextWord = m_words[w + 1];
+
+		for( int runStart = from; runStart < to; ) {
+			int runEnd = runStart + 1;
+
+			while ( runEnd < to && m_keys[runEnd] == m_keys[runStart])
+				runEnd++;
+
+			if ( runEnd - runStart > 1) {
+				for( int i = runStart; i < runEnd; i++)
+					m_keys[i] = nextWord[m_order[i]];
+
+				sortWord(runStart, runEnd, w + 1);
+			}
+			runStart = runEnd;
+		}
+	}
+    ///////////////////////////////////////////////////////////////////////////
+	// Rearranges payload so that the element at i becomes the one that was at order[i], as KeyIndexSort.applyOrder(..),
+	// following each cycle of the permutation with one hole. order ends up as the identity.
+	private static void applyOrder(CoSortPayload payload, int[] order){
+
+		for( int i = 0; i < order.length; i++) {
+
+			if ( order[i] == i)
+				continue;
+
+			int j = i;
+
+			payload.save(i);
+
+			while ( order[j] != i) {
+				int next = order[j];
+				payload.move(next, j);
+				order[j] = j;
+				j        = next;
+			}
+			payload.restore(j);
+			order[j] = j;
+		}
+	}
+}
@@ -0,0 +1,204 @@
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+
+// The engine behind QSortDouble.mergeSortedDelta(..) and QSort.mergeSortedDelta(..),
+// which keep an array sorted as batches of new elements are added to it, without sorting it all again.
+//
+// Only the new elements (the delta) are sorted, in a buffer of their own, and then merged into the sorted elements
+// from the back: for each delta element, largest first, we gallop back through the sorted elements to find where it goes
+// (checking 1, 3, 7, 15.. elements back, then a binary search between the last two checks),
+// and slide the sorted elements after it up in one System.arraycopy(..).
+// So a delta of k elements costs O(k log(N/k)) comparisons, and the sorted elements before the smallest delta element
+// aren't touched at all. Those after it are each moved once, but as part of a block copy rather than one at a time.
+//
+// Elements can also be removed, by setting their indexes in a BitSet. They are squeezed out before the merge,
+// again with one block copy for each run of elements between the removed ones.
+// A delta element goes after any sorted elements equal to it, so an update can be made
+// by removing the old element and adding the new one to the delta.
+final class DeltaMerger {
+
+    ///////////////////////////////////////////////////////////////////////////
+    // arr[0] to arr[sortedLen-1] must already be in order, and arr[sortedLen] to arr[len-1] are the delta, in any order.
+    // The elements whose indexes are set in removed (which may be null) are dropped, and the rest end up in order
+    // at the start of arr. Returns how many there are. The order is the same total order as QSortDouble.sort(..).
+    static int merge(double[] arr, int sortedLen, int len, boolean ascending, BitSet removed){
+    	int deltaStart = sortedLen;
+    	int deltaEnd   = len;
+
+    	if ( removed != null) {
+    		deltaEnd  = removeMarked(arr, deltaStart, len, removed);
+    		sortedLen = removeMarked(arr, 0, sortedLen, removed);
+    	}
+
+    	double[] delta = Arrays.copyOfRange(arr, deltaStart, deltaEnd);
+
+    	QSortDouble.sort(delta, ascending);
+    	mergeSorted(arr, sortedLen, delta, ascending ? 1 : -1);
+    	return sortedLen + delta.length;
+    }
+    ///////////////////////////////////////////////////////////////////////////
+    // Returns a new array with the elements of sortedArr, which must already be in order, and of delta, in order.
+    // Neither sortedArr nor delta is changed.
+    static double[] merge(double[] sortedArr, double[] delta, boolean ascending){
+    	double[] sortedDelta = delta.clone();
+    	double[] merged      = Arrays.copyOf(sortedArr, sortedArr.length + delta.length);
+
+    	QSortDouble.sort(sortedDelta, ascending);
+    	mergeSorted(merged, sortedArr.length, sortedDelta, ascending ? 1 : -1);
+    	return merged;
+    }
+    ///////////////////////////////////////////////////////////////////////////
+    // As merge(double[], ..) above, but in the order given by comparator.
+    // The slots after the returned length are set to null, so that the removed elements can be garbage collected.
+    static <S> int merge(S[] arr, int sortedLen, int len, Comparator<? super S> comparator, BitSet removed){
+    	int deltaStart = sortedLen;
+    	int deltaEnd   = len;
+
+    	if ( removed != null) {
+    		deltaEnd  = removeMarked(arr, deltaStart, len, removed);
+    		sortedLen = removeMarked(arr, 0, sortedLen, removed);
+    	}
+
+    	S[] delta  = Arrays.copyOfRange(arr, deltaStart, deltaEnd);
+    	int newLen = sortedLen + delta.length;
+
+    	QSort.sort(delta, comparator);
+    	mergeSorted(arr, sortedLen, delta, comparator);
+    	Arrays.fill(arr, newLen, len, null);
+    	return newLen;
+    }
+    ///////////////////////////////////////////////////////////////////////////
+    static <S> S[] merge(S[] sortedArr, S[] delta, Comparator<? super S> comparator){
+    	S[] sortedDelta = delta.clone();
+    	S[] merged      = Arrays.copyOf(sortedArr, sortedArr.length + delta.length);
+
+    	QSort.sort(sortedDelta, comparator);
+    	mergeSorted(merged, sortedArr.length, sortedDelta, comparator);
+    	return merged;
+    }
+    ///////////////////////////////////////////////////////////////////////////
+    // Merges the sorted delta into arr[0] to arr[sortedLen-1], from the back, so arr needs room for delta after them.
+    // order is 1 for ascending and -1 for descending.
+    private static void mergeSorted(double[] arr, int sortedLen, double[] delta, int order){
+    	int left = sortedLen;                  // the sorted elements still to merge are arr[0] to arr[left-1]
+    	int dest = sortedLen + delta.length;   // and everything from dest on is in its final place
+
+    	for( int d = delta.length - 1; d >= 0; d--) {
+
+    		if ( left == 0) {                  // the rest of the delta goes before all of the sorted elements.
+    			System.arraycopy(delta, 0, arr, 0, d + 1);
+    			return;
+    		}
+
+    		double elm      = delta[d];
+    		int    pos      = gallopBack(arr, left, elm, order);
+    		int    numAfter = left - pos;
+
+    		dest -= numAfter;
+    		System.arraycopy(arr, pos, arr, dest, numAfter);
+    		left        = pos;
+    		arr[--dest] = elm;
+    	}
+    }
+    ///////////////////////////////////////////////////////////////////////////
+    private static <S> void mergeSorted(S[] arr, int sortedLen, S[] delta, Comparator<? super S> comparator){
+    	int left = sortedLen;
+    	int dest = sortedLen + delta.length;
+
+    	for( int d = delta.length - 1; d >= 0; d--) {
+
+    		if ( left == 0) {
+    			System.arraycopy(delta, 0, arr, 0, d + 1);
+    			return;
+    		}
+
+    		S   elm      = delta[d];
+    		int pos      = gallopBack(arr, left, elm, comparator);
+    		int numAfter = left - pos;
+
+    		dest -= numAfter;
+    		System.arraycopy(arr, pos, arr, dest, numAfter);
+    		left        = pos;
+    		arr[--dest] = elm;
+    	}
+    }
+    ///////////////////////////////////////////////////////////////////////////
+    // The first index in the sorted range [0, end) whose element comes after val, or end if there isn't one.
+    // We search back from end, as the delta elements are merged largest first,
+    // so each one usually lands close behind where the one before it went.
+    private static int gallopBack(double[] arr, int end, double val, int order){
+    	int lastOfs = 0;   // the elements from arr[end-lastOfs] on all come after val
+    	int ofs     = 1;
+
+    	while ( ofs <= end && order * Double.compare(arr[end - ofs], val) > 0) {
+    		lastOfs = ofs;
+    		ofs     = (ofs << 1) + 1;
+
+    		if ( ofs <= 0)   // overflowed
+    			ofs = end + 1;
+    	}
+
+    	// arr[end-ofs] doesn't come after val (if there is such an element), so the answer is between these two.
+    	int low  = Math.max(0, end - ofs + 1);
+    	int high = end - lastOfs;
+
+    	while ( low < high) {
+    		int mid = (low + high) >>> 1;
+
+    		if ( order * Double.compare(arr[mid], val) > 0)
+    			high = mid;
+    		else
+    			low  = mid + 1;
+    	}
+    	return low;
+    }
+    ///////////////////////////////////////////////////////////////////////////
+    private static <S> int gallopBack(S[] arr, int end, S val, Comparator<? super S> comparator){
+    	int lastOfs = 0;
+    	int ofs     = 1;
+
+    	while ( ofs <= end && comparator.compare(arr[end - ofs], val) > 0) {
+    		lastOfs = ofs;
+    		ofs     = (ofs << 1) + 1;
+
+    		if ( ofs <= 0)
+    			ofs = end + 1;
+    	}
+
+    	int low  = Math.max(0, end - ofs + 1);
+    	int high = end - lastOfs;
+
+    	while ( low < high) {
+    		int mid = (low + high) >>> 1;
+
+    		if ( comparator.compare(arr[mid], val) > 0)
+    			high = mid;
+    		else
+    			low  = mid + 1;
+    	}
+    	return low;
+    }
+    ///////////////////////////////////////////////////////////////////////////
+    // Squeezes out the elements between from inclusive and to exclusive whose indexes are set in removed,
+    // keeping the order of the others, which end up from index 'from' on. Returns the end of the ones kept.
+    private static int removeMarked(Object arr, int from, int to, BitSet removed){
+    	int dest = removed.nextSetBit(from);
+
+    	if ( dest < 0 || dest >= to)
+    		return to;  // nothing to remove.
+
+    	for( int keep = removed.nextClearBit(dest); keep < to; ) {
+    		int next   = removed.nextSetBit(keep);
+    		int runEnd = ( next < 0 || next > to ? to : next);
+
+    		System.arraycopy(arr, keep, arr, dest, runEnd - keep);
+    		dest += runEnd - keep;
+    		keep  = removed.nextClearBit(runEnd);
+    	}
+    	return dest;
+    }
+    ///////////////////////////////////////////////////////////////////////////
+    private DeltaMerger(){
+    }
+}
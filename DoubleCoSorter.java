@@ -0,0 +1,181 @@
+// The engine behind QSortDouble.coSort(..) and QSortDouble.argSort(..).
+// It is the same hole-moving partition as QSortDouble, except that every move of a key
+// is also made on the payload, so we hold one temp key plus one temp element per payload array.
+final class DoubleCoSorter {
+	private double[]      m_keys;
+	private CoSortPayload m_payload;
+
+    ///////////////////////////////////////////////////////////////////////////
+    // Sorts keys from index 'from' inclusive to 'to' exclusive, with the same total order as QSortDouble.sort(..).
+    static void sort(double[] keys, int from, int to, boolean ascending, CoSortPayload payload){
+
+    	DoubleCoSorter sorter = new DoubleCoSorter(keys, payload);
+    	int            end    = sorter.moveNaNsToEnd(from, to);
+
+    	sorter.sortSub(from, end, IntroSort.depthBudget(end - from));
+    	sorter.orderZeros(from, end);
+
+    	if ( !ascending)
+    		sorter.reverse(from, to);
+    }
+    /////////////////////////////////////////////////////////////////////////////
+    private DoubleCoSorter(double[] keys, CoSortPayload payload){
+    	m_keys    = keys;
+    	m_payload = payload;
+    }
+    ///////////////////////////////////////////////////////////////////////////
+    private void swap(int i, int j){
+    	double temp = m_keys[i];
+    	m_keys[i]   = m_keys[j];
+    	m_keys[j]   = temp;
+
+    	m_payload.save(i);
+    	m_payload.move(j, i);
+    	m_payload.restore(j);
+    }
+    ///////////////////////////////////////////////////////////////////////////
+    // Moves the NaNs to the end of the range, and returns the (exclusive) end of the non-NaN keys.
+    private int moveNaNsToEnd(int from, int to){
+    	int end = to;
+
+    	for( int i = to - 1; i >= from; i--){
+    		if ( Double.isNaN(m_keys[i]))
+    			swap(i, --end);
+    	}
+    	return end;
+    }
+    ///////////////////////////////////////////////////////////////////////////
+    // The partitioning treats -0.0 and 0.0 as equal. QSortDouble can just rewrite the zeros afterwards,
+    // but here each zero has its own payload, so instead we move the -0.0s to the front of the run of zeros.
+    private void orderZeros(int from, int to){
+    	int low  = from;   // find the index of the first element that is not negative
+    	int high = to;
+
+    	while ( low < high){
+    		int mid = (low + high) >>> 1;
+
+    		if ( m_keys[mid] < 0.0)
+    			low  = mid + 1;
+    		else
+    			high = mid;
+    	}
+
+    	int next = low;    // where the next -0.0 should go
+
+    	for( int i = low; i < to && m_keys[i] == 0.0; i++){
+    		if ( Double.doubleToRawLongBits(m_keys[i]) != 0L) {
+    			if ( i != next)
+    				swap(i, next);
+    			next++;
+    		}
+    	}
+    }
+    ///////////////////////////////////////////////////////////////////////////
+    private void reverse(int from, int to){
+
+    	for( int i = from, j = to - 1; i < j; i++, j--)
+    		swap(i, j);
+    }
+    //////////////////////////////////////////////////////////////////////////////
+    private void sortSub(int low, int high, int depthBudget){
+       int available;
+
+       while ( high > (low + 1)) {
+
+    	   if ( depthBudget-- == 0) {
+    		   heapSort(low, high);
+    		   return;
+    	   }
+
+    	   available = partition(low, high);
+
+    	   if ( available - low < high - available) {
+    		   sortSub(low, available, depthBudget);
+    		   low  = available + 1;
+    	   } else {
+    		   sortSub(available + 1, high, depthBudget);
+    		   high = available;
+    	   }
+       }
+    }
+    //////////////////////////////////////////////////////////////////////////////
+    private int partition(int low, int high){
+	   int     pivotIdx       = idxOfMedianOfThree( low, (low + high)/2, high - 1 );
+	   double  pivot          = m_keys[pivotIdx];
+	   int     available      = low;
+       boolean workingFromLow = false;
+       int     lowIdx         = low;
+       int     highIdx        = high;
+
+       m_payload.save(pivotIdx);
+
+	   if ( pivotIdx != low) {
+		    m_keys[pivotIdx] = m_keys[low];
+		    m_payload.move(low, pivotIdx);
+	   }
+
+       while ( lowIdx  < highIdx){
+
+           if (workingFromLow && (m_keys[++lowIdx] > pivot)){
+	           m_keys[available]  = m_keys[lowIdx];
+	           m_payload.move(lowIdx, available);
+	           available          = lowIdx;
+	           workingFromLow     = false;
+
+           } else if ((!workingFromLow) && (pivot > m_keys[--highIdx])){
+	           m_keys[available]  = m_keys[highIdx];
+	           m_payload.move(highIdx, available);
+	           available          = highIdx;
+	           workingFromLow     = true;
+           }
+        }  // end of while
+        m_keys[available] = pivot;
+        m_payload.restore(available);
+
+        return available;
+    }
+    ///////////////////////////////////////////////////////////////////////////
+    private void heapSort(int low, int high){
+    	int numElms = high - low;
+
+    	for( int i = numElms / 2 - 1; i >= 0; i--)
+    		siftDown(low, i, numElms);
+
+    	for( int last = numElms - 1; last > 0; last--){
+    		swap(low, low + last);
+    		siftDown(low, 0, last);
+    	}
+    }
+    ///////////////////////////////////////////////////////////////////////////
+    private void siftDown(int low, int i, int numElms){
+    	double key   = m_keys[low + i];
+    	int    child;
+
+    	m_payload.save(low + i);
+
+    	while ( (child = 2 * i + 1) < numElms){
+
+    		if ( child + 1 < numElms && m_keys[low + child + 1] > m_keys[low + child])
+    			child++;
+
+    		if ( !(m_keys[low + child] > key))
+    			break;
+
+    		m_keys[low + i] = m_keys[low + child];
+    		m_payload.move(low + child, low + i);
+    		i               = child;
+    	}
+    	m_keys[low + i] = key;
+    	m_payload.restore(low + i);
+    }
+    ///////////////////////////////////////////////////////////////////////////
+    private int idxOfMedianOfThree( int i1, int i2, int i3){
+    	if ( (m_keys[i2] > m_keys[i1]) == (m_keys[i1] > m_keys[i3]))
+    		return i1;
+    	else if ( (m_keys[i1] > m_keys[i2]) == (m_keys[i2] > m_keys[i3]))
+    		return i2;
+    	else
+    		return i3;
+    }
+    //////////////////////////////////////////////////////////////////////////////////
+}
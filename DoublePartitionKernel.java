@@ -0,0 +1,13 @@
+// A vectorised partition kernel for QSortDouble's PartitionScheme.SIMD.
+// The one implementation, DoubleSimdPartition, lives in the simd/ source root as it needs the jdk.incubator.vector module,
+// so QSortDouble only ever sees it through this interface, loading it by name when the module is there.
+interface DoublePartitionKernel {
+
+	// Whether the CPU's vectors are wide enough for the kernel to beat the scalar partition.
+	boolean isWorthwhile();
+
+	// Partitions arr between low inclusive and high exclusive (more than 2 vectors' worth of elements),
+	// so that the elements below the returned index are < pivot, and the rest are >= pivot.
+	// arr must not contain NaNs.
+	int partition(double[] arr, int low, int high, double pivot);
+}
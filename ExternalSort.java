@@ -0,0 +1,455 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+// Sorts binary files of doubles or longs which are too big to fit in memory.
+// The input is read in chunks (runs) which fit within the memory budget, each run is sorted in memory
+// with QSortDouble or QSortLong, and spilled to a temp file.
+// The runs are then merged, up to 'fan-in' at a time, with a loser tree,
+// repeating the merge passes until a single run is left, which is the output.
+//
+// e.g.
+//     ExternalSort sorter = new ExternalSort();
+//     sorter.setMemoryBudget(512L << 20);
+//     ExternalSort.Stats stats = sorter.sortDoubles(input, output, ByteOrder.LITTLE_ENDIAN, true);
+public class ExternalSort {
+	private long             m_memoryBudget = 256L << 20;  // in bytes
+	private int              m_runSize      = 0;           // in elements, 0 means work it out from the memory budget.
+	private int              m_fanIn        = 64;
+	private Path             m_tempDir      = null;        // null means the system's default temp directory.
+	private ProgressListener m_listener     = null;
+
+	private static final int MIN_BUFFER_BYTES = 64 << 10;
+	private static final int MAX_BUFFER_BYTES = 16 << 20;
+
+    ///////////////////////////////////////////////////////////////////////////
+    // Called with phase "runs" as each run is written, with the elements written so far,
+    // "merge" as each group of runs is merged, with the elements merged so far in that merge pass
+    // (the final merge into the output is a pass of its own), and "done" once the output is complete.
+    public interface ProgressListener {
+    	void onProgress(String phase, long elmsDone, long elmsTotal, Stats stats);
+    }
+    ///////////////////////////////////////////////////////////////////////////
+    // The memory used for the run being sorted, or for the merge buffers, will stay within this many bytes.
+    // It must fit at least a 2-way merge, i.e. 3 buffers of MIN_BUFFER_BYTES.
+    public void setMemoryBudget(long bytes){
+
+    	if ( bytes < 3L * MIN_BUFFER_BYTES)
+    		throw new IllegalArgumentException("The memory budget must be at least " + (3 * MIN_BUFFER_BYTES) + " bytes");
+
+    	m_memoryBudget = bytes;
+    }
+    ///////////////////////////////////////////////////////////////////////////
+    // The number of elements sorted in memory at a time. It is capped by the memory budget.
+    public void setRunSize(int numElms){
+
+    	if ( numElms < 1)
+    		throw new IllegalArgumentException("The run size must be positive");
+
+    	m_runSize = numElms;
+    }
+    ///////////////////////////////////////////////////////////////////////////
+    // The maximum number of runs merged at once. A merge needs a buffer of at least MIN_BUFFER_BYTES per run
+    // plus one for the output, so when those don't fit in the memory budget, fewer runs are merged at once, see fanIn().
+    public void setFanIn(int fanIn){
+
+    	if ( fanIn < 2)
+    		throw new IllegalArgumentException("The fan-in must be at least 2");
+
+    	m_fanIn = fanIn;
+    }
+    ///////////////////////////////////////////////////////////////////////////
+    public void setTempDir(Path dir){
+    	m_tempDir = dir;
+    }
+    ///////////////////////////////////////////////////////////////////////////
+    public void setProgressListener(ProgressListener listener){
+    	m_listener = listener;
+    }
+    ///////////////////////////////////////////////////////////////////////////
+    // The order is the same as QSortDouble.sort(..), i.e. by Double.compare(..).
+    public Stats sortDoubles(Path input, Path output, ByteOrder order, boolean ascending) throws IOException{
+    	return sort(input, output, order, true, ascending);
+    }
+    ///////////////////////////////////////////////////////////////////////////
+    public Stats sortLongs(Path input, Path output, ByteOrder order, boolean ascending) throws IOException{
+    	return sort(input, output, order, false, ascending);
+    }
+    ///////////////////////////////////////////////////////////////////////////
+    private Stats sort(Path input, Path output, ByteOrder order, boolean doubles, boolean ascending) throws IOException{
+    	Stats      stats = new Stats();
+    	List<Path> runs  = new ArrayList<Path>();
+
+    	try {
+    		writeSortedRuns(input, order, doubles, ascending, runs, stats);
+
+    		while ( runs.size() > fanIn())
+    			runs = mergePass(runs, order, doubles, ascending, stats);
+
+    		if ( runs.isEmpty())
+    			Files.write(output, new byte[0]);
+    		else if ( runs.size() == 1)
+    			Files.move(runs.remove(0), output, StandardCopyOption.REPLACE_EXISTING);
+    		else {
+    			long numMerged = merge(runs, output, order, doubles, ascending, stats);
+    			deleteAll(runs);
+    			runs.clear();
+    			stats.m_mergePasses++;
+    			reportProgress("merge", numMerged, stats);
+    		}
+    		stats.m_elapsedNanos = System.nanoTime() - stats.m_startNanos;
+    		reportProgress("done", stats.m_numElms, stats);
+    		return stats;
+
+    	} catch ( IOException | RuntimeException | Error e) {
+    		deleteAll(runs, e);
+    		throw e;
+    	}
+    }
+    ///////////////////////////////////////////////////////////////////////////
+    // Reads the input a run at a time, sorts each run in memory and writes it to a temp file.
+    private void writeSortedRuns(Path input, ByteOrder order, boolean doubles, boolean ascending,
+    		                     List<Path> runs, Stats stats) throws IOException{
+
+    	try ( FileChannel in = FileChannel.open(input, StandardOpenOption.READ)) {
+
+    		if ( in.size() % Long.BYTES != 0)
+    			throw new IllegalArgumentException("The input's size, " + in.size() + " bytes, is not a multiple of " + Long.BYTES);
+
+    		long       total   = in.size() / Long.BYTES;
+    		int        runSize = runSize(total);
+    		ByteBuffer buf     = ByteBuffer.allocateDirect(bufferBytes(1)).order(order);
+    		double[]   dArr    = doubles ? new double[runSize] : null;
+    		long[]     lArr    = doubles ? null : new long[runSize];
+
+    		stats.m_numElms = total;
+
+    		for( long done = 0; done < total; ) {
+    			int numElms = (int) Math.min(runSize, total - done);
+
+    			for( int i = 0; i < numElms; ) {  // read the run
+    				buf.clear();
+    				buf.limit((int) Math.min(buf.capacity(), (long) (numElms - i) * Long.BYTES));
+    				readFully(in, buf);
+    				stats.m_bytesRead += buf.remaining();
+
+    				if ( doubles) {
+    					int n = buf.remaining() / Long.BYTES;
+    					buf.asDoubleBuffer().get(dArr, i, n);
+    					i += n;
+    				} else {
+    					int n = buf.remaining() / Long.BYTES;
+    					buf.asLongBuffer().get(lArr, i, n);
+    					i += n;
+    				}
+    			}
+
+    			if ( doubles)
+    				QSortDouble.sort(dArr, 0, numElms, ascending);
+    			else
+    				QSortLong.sort(lArr, 0, numElms, ascending);
+
+    			Path run = newRunFile();
+    			runs.add(run);
+
+    			try ( FileChannel out = FileChannel.open(run, StandardOpenOption.WRITE)) {  // write the run
+    				for( int i = 0; i < numElms; ) {
+    					int n = Math.min(buf.capacity() / Long.BYTES, numElms - i);
+    					buf.clear();
+
+    					if ( doubles)
+    						buf.asDoubleBuffer().put(dArr, i, n);
+    					else
+    						buf.asLongBuffer().put(lArr, i, n);
+
+    					buf.limit(n * Long.BYTES);
+    					writeFully(out, buf, stats);
+    					i += n;
+    				}
+    			}
+    			done += numElms;
+    			stats.m_numRuns++;
+    			reportProgress("runs", done, stats);
+    		}
+    	}
+    }
+    ///////////////////////////////////////////////////////////////////////////
+    // Merges the runs in groups of fanIn(), and returns the new, fewer, runs.
+    // If it fails, the new runs are deleted here, as the caller only knows about the old ones.
+    private List<Path> mergePass(List<Path> runs, ByteOrder order, boolean doubles, boolean ascending, Stats stats) throws IOException{
+    	List<Path> merged    = new ArrayList<Path>();
+    	int        fanIn     = fanIn();
+    	long       numMerged = 0;
+
+    	try {
+    		for( int i = 0; i < runs.size(); i += fanIn) {
+    			List<Path> group = runs.subList(i, Math.min(runs.size(), i + fanIn));
+
+    			if ( group.size() == 1) {
+    				merged.add(group.get(0));
+    				numMerged += Files.size(group.get(0)) / Long.BYTES;
+    			} else {
+    				Path run = newRunFile();
+    				merged.add(run);
+    				numMerged += merge(group, run, order, doubles, ascending, stats);
+    				deleteAll(group);
+    			}
+    			reportProgress("merge", numMerged, stats);
+    		}
+    	} catch ( IOException | RuntimeException | Error e) {
+    		deleteAll(merged, e);
+    		throw e;
+    	}
+    	stats.m_mergePasses++;
+    	return merged;
+    }
+    ///////////////////////////////////////////////////////////////////////////
+    // A k-way merge of sorted runs into output, using a loser tree.
+    // tree[0] holds the index of the run with the smallest current element,
+    // and each other node holds the run which lost the match at that node.
+    // So after taking an element, only the log2(k) matches on the path back up from that run need replaying.
+    // Returns the number of elements merged.
+    private long merge(List<Path> runs, Path output, ByteOrder order, boolean doubles, boolean ascending, Stats stats) throws IOException{
+    	int         k       = runs.size();
+    	RunReader[] readers = new RunReader[k];
+    	int[]       tree    = new int[k];
+    	int         bufSize = bufferBytes(k + 1);
+    	long        numElms = 0;
+
+    	try ( FileChannel out = FileChannel.open(output, StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+
+    		for( int i = 0; i < k; i++)
+    			readers[i] = new RunReader(runs.get(i), bufSize, order, doubles, ascending, stats);
+
+    		int[] winners = new int[2 * k];   // only used to build the tree
+
+    		for( int i = 0; i < k; i++)
+    			winners[k + i] = i;
+
+    		for( int node = k - 1; node >= 1; node--) {
+    			int a = winners[2 * node];
+    			int b = winners[2 * node + 1];
+
+    			if ( beats(readers, a, b)) {
+    				winners[node] = a;
+    				tree[node]    = b;
+    			} else {
+    				winners[node] = b;
+    				tree[node]    = a;
+    			}
+    		}
+    		tree[0] = winners[1];
+
+    		ByteBuffer outBuf = ByteBuffer.allocateDirect(bufSize).order(order);
+
+    		while ( !readers[tree[0]].m_exhausted) {
+    			int winner = tree[0];
+
+    			if ( !outBuf.hasRemaining()) {
+    				outBuf.flip();
+    				writeFully(out, outBuf, stats);
+    				outBuf.clear();
+    			}
+    			outBuf.putLong(readers[winner].m_bits);
+    			readers[winner].next();
+    			numElms++;
+
+    			for( int node = (winner + k) / 2; node >= 1; node /= 2) {  // replay the matches up to the root
+    				if ( beats(readers, tree[node], winner)) {
+    					int loser  = winner;
+    					winner     = tree[node];
+    					tree[node] = loser;
+    				}
+    			}
+    			tree[0] = winner;
+    		}
+    		outBuf.flip();
+    		writeFully(out, outBuf, stats);
+    		return numElms;
+
+    	} finally {
+    		for( RunReader reader : readers)
+    			if ( reader != null)
+    				reader.close();
+    	}
+    }
+    ///////////////////////////////////////////////////////////////////////////
+    // true if run a's current element should come out before run b's. An exhausted run never wins.
+    private static boolean beats(RunReader[] readers, int a, int b){
+
+    	if ( readers[a].m_exhausted)
+    		return false;
+
+    	if ( readers[b].m_exhausted)
+    		return true;
+
+    	return readers[a].m_key <= readers[b].m_key;
+    }
+    ///////////////////////////////////////////////////////////////////////////
+    private int runSize(long total){
+    	long maxElms = (m_memoryBudget - bufferBytes(1)) / Long.BYTES;
+    	long size    = Math.min(maxElms, Integer.MAX_VALUE - 8);
+
+    	if ( m_runSize > 0)
+    		size = Math.min(size, m_runSize);
+
+    	return (int) Math.max(1, Math.min(size, total));
+    }
+    ///////////////////////////////////////////////////////////////////////////
+    // The number of runs merged at once: m_fanIn, unless that many buffers of MIN_BUFFER_BYTES,
+    // plus the output buffer, wouldn't fit in the memory budget. setMemoryBudget(..) makes sure it is at least 2.
+    private int fanIn(){
+    	return (int) Math.min(m_fanIn, m_memoryBudget / MIN_BUFFER_BYTES - 1);
+    }
+    ///////////////////////////////////////////////////////////////////////////
+    // The size of each IO buffer when numBuffers of them have to fit in the memory budget.
+    // With numBuffers at most fanIn() + 1, raising it to MIN_BUFFER_BYTES never takes us over the budget.
+    private int bufferBytes(int numBuffers){
+    	long bytes = m_memoryBudget / numBuffers;
+
+    	if ( numBuffers == 1)
+    		bytes = m_memoryBudget / 16;  // when sorting a run, most of the budget is for the run itself.
+
+    	bytes = Math.max(MIN_BUFFER_BYTES, Math.min(MAX_BUFFER_BYTES, bytes));
+    	return (int) (bytes - bytes % Long.BYTES);
+    }
+    ///////////////////////////////////////////////////////////////////////////
+    private Path newRunFile() throws IOException{
+
+    	if ( m_tempDir == null)
+    		return Files.createTempFile("qsort-run", ".bin");
+    	else
+    		return Files.createTempFile(m_tempDir, "qsort-run", ".bin");
+    }
+    ///////////////////////////////////////////////////////////////////////////
+    private void reportProgress(String phase, long elmsDone, Stats stats){
+
+    	if ( m_listener != null) {
+    		stats.m_elapsedNanos = System.nanoTime() - stats.m_startNanos;
+    		m_listener.onProgress(phase, elmsDone, stats.m_numElms, stats);
+    	}
+    }
+    ///////////////////////////////////////////////////////////////////////////
+    private static void readFully(FileChannel in, ByteBuffer buf) throws IOException{
+
+    	while ( buf.hasRemaining())
+    		if ( in.read(buf) < 0)
+    			throw new IOException("Unexpected end of file");
+
+    	buf.flip();
+    }
+    ///////////////////////////////////////////////////////////////////////////
+    private static void writeFully(FileChannel out, ByteBuffer buf, Stats stats) throws IOException{
+    	stats.m_bytesWritten += buf.remaining();
+
+    	while ( buf.hasRemaining())
+    		out.write(buf);
+    }
+    ///////////////////////////////////////////////////////////////////////////
+    private static void deleteAll(List<Path> files) throws IOException{
+
+    	for( Path file : files)
+    		Files.deleteIfExists(file);
+    }
+    ///////////////////////////////////////////////////////////////////////////
+    // For cleaning up after failure: a file we can't delete is added to it as suppressed, rather than replacing it.
+    private static void deleteAll(List<Path> files, Throwable failure){
+
+    	for( Path file : files) {
+    		try {
+    			Files.deleteIfExists(file);
+    		} catch ( IOException e) {
+    			failure.addSuppressed(e);
+    		}
+    	}
+    }
+    ///////////////////////////////////////////////////////////////////////////
+    // Reads a sorted run back in through a buffer, one element at a time.
+    // m_key is the element mapped onto a long that compares in the order we are merging in.
+    private static class RunReader {
+    	private FileChannel m_channel;
+    	private ByteBuffer  m_buf;
+    	private boolean     m_doubles;
+    	private boolean     m_ascending;
+    	private Stats       m_stats;
+
+    	long    m_bits;
+    	long    m_key;
+    	boolean m_exhausted;
+
+    	RunReader(Path run, int bufSize, ByteOrder order, boolean doubles, boolean ascending, Stats stats) throws IOException{
+    		m_channel   = FileChannel.open(run, StandardOpenOption.READ);
+    		m_buf       = ByteBuffer.allocateDirect(bufSize).order(order);
+    		m_doubles   = doubles;
+    		m_ascending = ascending;
+    		m_stats     = stats;
+    		m_buf.flip();
+    		next();
+    	}
+
+    	void next() throws IOException{
+
+    		if ( m_buf.remaining() < Long.BYTES) {
+    			m_buf.compact();  // keeps the start of an element that a read may have split, at the front.
+
+    			int numRead;
+
+    			while ( m_buf.position() < Long.BYTES && (numRead = m_channel.read(m_buf)) >= 0)
+    				m_stats.m_bytesRead += numRead;  // keep reading until we have at least one element or reach the end.
+
+    			m_buf.flip();
+
+    			if ( m_buf.remaining() < Long.BYTES) {
+    				m_exhausted = true;
+    				return;
+    			}
+    		}
+    		m_bits = m_buf.getLong();
+    		m_key  = m_doubles ? KeyIndexSort.sortableBits(Double.longBitsToDouble(m_bits)) : m_bits;
+
+    		if ( !m_ascending)
+    			m_key = ~m_key;
+    	}
+
+    	void close() throws IOException{
+    		m_channel.close();
+    	}
+    }
+    ///////////////////////////////////////////////////////////////////////////
+    // Metrics for one call to sortDoubles(..) or sortLongs(..).
+    public static class Stats {
+    	private long m_startNanos = System.nanoTime();
+    	private long m_elapsedNanos;
+    	private long m_numElms;
+    	private long m_numRuns;
+    	private long m_mergePasses;
+    	private long m_bytesRead;
+    	private long m_bytesWritten;
+
+    	public long getNumElms()      { return m_numElms; }
+    	public long getNumRuns()      { return m_numRuns; }
+    	public long getMergePasses()  { return m_mergePasses; }
+    	public long getBytesRead()    { return m_bytesRead; }
+    	public long getBytesWritten() { return m_bytesWritten; }
+    	public long getElapsedNanos() { return m_elapsedNanos; }
+
+    	// The total IO, read plus written, in MB per second.
+    	public double getThroughputMBPerSec(){
+    		double secs = m_elapsedNanos / 1e9;
+    		return secs > 0 ? (m_bytesRead + m_bytesWritten) / (1024.0 * 1024.0) / secs : 0.0;
+    	}
+
+    	public String toString(){
+    		return String.format("%,d elms, %,d runs, %d merge passes, %,d bytes read, %,d bytes written, %,.1f ms, %,.1f MB/s",
+    				             m_numElms, m_numRuns, m_mergePasses, m_bytesRead, m_bytesWritten,
+    				             m_elapsedNanos / 1e6, getThroughputMBPerSec());
+    	}
+    }
+}
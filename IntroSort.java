@@ -0,0 +1,29 @@
+// The introsort-style depth limit shared by the q-sort classes.
+// Median-of-three pivots can be defeated by some inputs (e.g. organ-pipe or deliberately adversarial arrays),
+// which would give O(N^2) time. So each sort gives itself a budget of partitioning levels, 
+// and once that is used up on a sub-array, the sub-array is heap sorted instead.
+final class IntroSort {
+	
+    ///////////////////////////////////////////////////////////////////////////
+    // Returns 2 * floor(log2(numElms)), the number of partitioning levels a well balanced sort 
+    // of numElms elements would need, with a factor of 2 allowed for unlucky pivots.
+    static int depthBudget(int numElms){
+    	
+    	if ( numElms <= 1)
+    		return 0;
+    	
+    	return 2 * (31 - Integer.numberOfLeadingZeros(numElms));
+    }
+    ///////////////////////////////////////////////////////////////////////////
+    // As above, for sorts that index their elements with longs, e.g. QSortOffHeap.
+    static int depthBudget(long numElms){
+    	
+    	if ( numElms <= 1)
+    		return 0;
+    	
+    	return 2 * (63 - Long.numberOfLeadingZeros(numElms));
+    }
+    ///////////////////////////////////////////////////////////////////////////
+    private IntroSort(){
+    }
+}
@@ -0,0 +1,126 @@
+import java.util.HashMap;
+
+// One key column for ColumnSort, i.e. an array holding one value per row, and whether it sorts ascending or descending.
+// Each column encodes its values as normalized keys: unsigned longs that compare in the order the rows should go,
+// using as few bits as the column needs, so that ColumnSort can pack the keys of all of the columns into a few longs.
+public interface KeyColumn {
+
+	// The number of rows, which must be the same for all of the columns being sorted.
+	int length();
+
+	// Writes each row's normalized key into keys[row], and returns how many (low) bits the keys use, from 0 to 64.
+	// Comparing two rows' keys as unsigned longs orders them as the column does, descending included,
+	// and equal keys mean equal values.
+	int encode(long[] keys);
+
+	// The column's array as a payload, so that ColumnSort.sort(..) can reorder it.
+	CoSortPayload payload();
+
+    ///////////////////////////////////////////////////////////////////////////
+	static KeyColumn of(final int[] col, final boolean ascending){
+		return new KeyColumn(){
+			public int           length()  { return col.length; }
+			public CoSortPayload payload() { return CoSortPayload.of(col); }
+
+			public int encode(long[] keys){
+				long min = Long.MAX_VALUE;
+				long max = Long.MIN_VALUE;
+
+				for( int val : col) {
+					min = Math.min(min, val);
+					max = Math.max(max, val);
+				}
+
+				for( int row = 0; row < col.length; row++)
+					keys[row] = ( ascending ? col[row] - min : max - col[row]);
+
+				return bitsFor(min, max);
+			}
+		};
+	}
+    ///////////////////////////////////////////////////////////////////////////
+	static KeyColumn of(final long[] col, final boolean ascending){
+		return new KeyColumn(){
+			public int           length()  { return col.length; }
+			public CoSortPayload payload() { return CoSortPayload.of(col); }
+
+			public int encode(long[] keys){
+				long min = Long.MAX_VALUE;
+				long max = Long.MIN_VALUE;
+
+				for( long val : col) {
+					min = Math.min(min, val);
+					max = Math.max(max, val);
+				}
+
+				// the differences may overflow, but as unsigned longs they're still right.
+				for( int row = 0; row < col.length; row++)
+					keys[row] = ( ascending ? col[row] - min : max - col[row]);
+
+				return bitsFor(min, max);
+			}
+		};
+	}
+    ///////////////////////////////////////////////////////////////////////////
+	// The doubles are ordered as by Double.compare(..), so -0.0 comes before 0.0 and NaN comes last (first when descending).
+	static KeyColumn of(final double[] col, final boolean ascending){
+		return new KeyColumn(){
+			public int           length()  { return col.length; }
+			public CoSortPayload payload() { return CoSortPayload.of(col); }
+
+			public int encode(long[] keys){
+				long min = Long.MAX_VALUE;
+				long max = Long.MIN_VALUE;
+
+				for( int row = 0; row < col.length; row++) {
+					keys[row] = KeyIndexSort.sortableBits(col[row]);
+					min       = Math.min(min, keys[row]);
+					max       = Math.max(max, keys[row]);
+				}
+
+				for( int row = 0; row < col.length; row++)
+					keys[row] = ( ascending ? keys[row] - min : max - keys[row]);
+
+				return bitsFor(min, max);
+			}
+		};
+	}
+    ///////////////////////////////////////////////////////////////////////////
+	// The strings are ordered as by String.compareTo(..), and mustn't be null.
+	// Rather than a prefix of their chars, the key is each string's rank among the column's distinct strings,
+	// which is exact, and for a column of a few distinct values (regions, currencies..) only takes a few bits.
+	// Finding the ranks costs a hash lookup per row plus a StringSort of the distinct strings.
+	static KeyColumn of(final String[] col, final boolean ascending){
+		return new KeyColumn(){
+			public int           length()  { return col.length; }
+			public CoSortPayload payload() { return CoSortPayload.of(col); }
+
+			public int encode(long[] keys){
+				HashMap<String, Integer> ranks = new HashMap<String, Integer>();
+
+				for( String val : col)
+					ranks.put(val, 0);
+
+				String[] distinct = ranks.keySet().toArray(new String[ranks.size()]);
+				StringSort.sort(distinct, ascending);
+
+				for( int rank = 0; rank < distinct.length; rank++)
+					ranks.put(distinct[rank], rank);
+
+				for( int row = 0; row < col.length; row++)
+					keys[row] = ranks.get(col[row]);
+
+				return bitsFor(0, distinct.length - 1);
+			}
+		};
+	}
+    ///////////////////////////////////////////////////////////////////////////
+	// The number of bits needed for the keys of a column whose values run from min to max, which may be 0.
+	private static int bitsFor(long min, long max){
+
+		if ( max <= min)
+			return 0;
+
+		return 64 - Long.numberOfLeadingZeros(max - min);
+	}
+}
@@ -0,0 +1,199 @@
+// Used by QSort's sortBy...Key(..) methods to sort objects by a primitive key.
+// The keys are sorted with the same hole-moving partition as QSortLong,
+// and each key's original index is moved along with it,
+// which gives us the order that the objects then need to be moved into.
+final class KeyIndexSort {
+	private long[] m_keys;
+	private int[]  m_order;
+
+    ///////////////////////////////////////////////////////////////////////////
+    // keys[i] must be the key of arr[i]. Both arrays are rearranged.
+    static <S> void sort(S[] arr, long[] keys, boolean ascending){
+
+    	if ( !ascending) {
+    		for( int i = 0; i < keys.length; i++)
+    			keys[i] = ~keys[i];  // reverses the order of the longs, and unlike negating it can't overflow.
+    	}
+
+    	int[] order = new int[keys.length];
+
+    	for( int i = 0; i < order.length; i++)
+    		order[i] = i;
+
+    	KeyIndexSort sorter = new KeyIndexSort(keys, order);
+    	sorter.sortSub(0, keys.length, IntroSort.depthBudget(keys.length));
+
+    	applyOrder(arr, order);
+    }
+    ///////////////////////////////////////////////////////////////////////////
+    // As sort(..) above, in ascending order, for the numElms elements of arr from index 'from' on.
+    // keys[i] must be the key of arr[from + i], and order is scratch space, which like keys needs at least numElms elements,
+    // so that a caller sorting many sub-arrays can reuse the same two buffers for all of them.
+    static <S> void sortRange(S[] arr, int from, long[] keys, int[] order, int numElms){
+
+    	for( int i = 0; i < numElms; i++)
+    		order[i] = i;
+
+    	KeyIndexSort sorter = new KeyIndexSort(keys, order);
+    	sorter.sortSub(0, numElms, IntroSort.depthBudget(numElms));
+
+    	applyOrder(arr, from, order, numElms);
+    }
+    ///////////////////////////////////////////////////////////////////////////
+    // Sorts keys between from inclusive and to exclusive into ascending order,
+    // making every move of a key on order too, whatever order holds, e.g. row numbers.
+    static void sort(long[] keys, int[] order, int from, int to){
+    	new KeyIndexSort(keys, order).sortSub(from, to, IntroSort.depthBudget(to - from));
+    }
+    ///////////////////////////////////////////////////////////////////////////
+    // Maps a double onto a long, such that comparing the longs gives the same order as Double.compare(..)
+    // i.e. -0.0 comes before 0.0, and NaN comes after +Infinity.
+    static long sortableBits(double val){
+    	long bits = Double.doubleToLongBits(val);  // rather than the raw bits, so that all NaNs are the same.
+
+    	// Positive doubles already compare correctly as longs,
+    	// for negative ones we flip all bits except the sign, so that bigger magnitudes become smaller longs.
+    	return bits ^ ((bits >> 63) & Long.MAX_VALUE);
+    }
+    ///////////////////////////////////////////////////////////////////////////
+    // Rearranges arr so that the element at i becomes the one that was at order[i].
+    // We follow each cycle of the permutation, moving a hole around it, so only one temp element is needed.
+    // order is used to mark which positions are done, and ends up as the identity.
+    static <S> void applyOrder(S[] arr, int[] order){
+    	applyOrder(arr, 0, order, order.length);
+    }
+    ///////////////////////////////////////////////////////////////////////////
+    // As above, for the numElms elements of arr from index 'from' on, i.e. arr[from + i] becomes arr[from + order[i]].
+    static <S> void applyOrder(S[] arr, int from, int[] order, int numElms){
+
+    	for( int i = 0; i < numElms; i++) {
+
+    		if ( order[i] == i)
+    			continue;
+
+    		S   temp = arr[from + i];
+    		int j    = i;
+
+    		while ( order[j] != i) {
+    			int next      = order[j];
+    			arr[from + j] = arr[from + next];
+    			order[j]      = j;
+    			j             = next;
+    		}
+    		arr[from + j] = temp;
+    		order[j]      = j;
+    	}
+    }
+    /////////////////////////////////////////////////////////////////////////////
+    private KeyIndexSort(long[] keys, int[] order){
+    	m_keys  = keys;
+    	m_order = order;
+    }
+    //////////////////////////////////////////////////////////////////////////////
+    // will sort the keys between low inclusive and high exclusive.
+    private void sortSub(int low, int high, int depthBudget){
+       int available;
+
+       while ( high > (low + 1)) {
+
+    	   if ( depthBudget-- == 0) {
+    		   heapSort(low, high);
+    		   return;
+    	   }
+
+    	   available = partition(low, high);
+
+    	   if ( available - low < high - available) {
+    		   sortSub(low, available, depthBudget);
+    		   low  = available + 1;
+    	   } else {
+    		   sortSub(available + 1, high, depthBudget);
+    		   high = available;
+    	   }
+       }
+    }
+    //////////////////////////////////////////////////////////////////////////////
+    // As in QSortLong, but every move of a key is matched by the same move of its index.
+    private int partition(int low, int high){
+	   int     pivotIdx       = idxOfMedianOfThree( low, (low + high)/2, high - 1 );
+	   long    pivot          = m_keys[pivotIdx];
+	   int     pivotOrder     = m_order[pivotIdx];
+	   int     available      = low;
+       boolean workingFromLow = false;
+       int     lowIdx         = low;
+       int     highIdx        = high;
+
+	   if ( pivotIdx != low) {
+		    m_keys[pivotIdx]  = m_keys[low];
+		    m_order[pivotIdx] = m_order[low];
+	   }
+
+       while ( lowIdx  < highIdx){
+
+           if (workingFromLow && (m_keys[++lowIdx] > pivot)){
+	           m_keys[available]  = m_keys[lowIdx];
+	           m_order[available] = m_order[lowIdx];
+	           available          = lowIdx;
+	           workingFromLow     = false;
+
+           } else if ((!workingFromLow) && (pivot > m_keys[--highIdx])){
+	           m_keys[available]  = m_keys[highIdx];
+	           m_order[available] = m_order[highIdx];
+	           available          = highIdx;
+	           workingFromLow     = true;
+           }
+        }  // end of while
+        m_keys[available]  = pivot;
+        m_order[available] = pivotOrder;
+
+        return available;
+    }
+    ///////////////////////////////////////////////////////////////////////////
+    private void heapSort(int low, int high){
+    	int numElms = high - low;
+
+    	for( int i = numElms / 2 - 1; i >= 0; i--)
+    		siftDown(low, i, numElms);
+
+    	for( int last = numElms - 1; last > 0; last--){
+    		long tempKey              = m_keys[low];
+    		int  tempOrder            = m_order[low];
+    		m_keys[low]               = m_keys[low + last];
+    		m_order[low]              = m_order[low + last];
+    		m_keys[low + last]        = tempKey;
+    		m_order[low + last]       = tempOrder;
+    		siftDown(low, 0, last);
+    	}
+    }
+    ///////////////////////////////////////////////////////////////////////////
+    private void siftDown(int low, int i, int numElms){
+    	long key   = m_keys[low + i];
+    	int  order = m_order[low + i];
+    	int  child;
+
+    	while ( (child = 2 * i + 1) < numElms){
+
+    		if ( child + 1 < numElms && m_keys[low + child + 1] > m_keys[low + child])
+    			child++;
+
+    		if ( !(m_keys[low + child] > key))
+    			break;
+
+    		m_keys[low + i]  = m_keys[low + child];
+    		m_order[low + i] = m_order[low + child];
+    		i                = child;
+    	}
+    	m_keys[low + i]  = key;
+    	m_order[low + i] = order;
+    }
+    ///////////////////////////////////////////////////////////////////////////
+    private int idxOfMedianOfThree( int i1, int i2, int i3){
+    	if ( (m_keys[i2] > m_keys[i1]) == (m_keys[i1] > m_keys[i3]))
+    		return i1;
+    	else if ( (m_keys[i1] > m_keys[i2]) == (m_keys[i2] > m_keys[i3]))
+    		return i2;
+    	else
+    		return i3;
+    }
+    //////////////////////////////////////////////////////////////////////////////////
+}
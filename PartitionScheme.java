@@ -0,0 +1,25 @@
+// The partitioning schemes that QSort and QSortDouble can be asked to use, 
+// e.g. QSortDouble.sort(arr, ascending, PartitionScheme.THREE_WAY).
+public enum PartitionScheme {
+	
+	// The hole-moving partition around a single median-of-three pivot, as described in the README.
+	SINGLE_PIVOT,
+	
+	// As SINGLE_PIVOT, but the elements equal to the pivot are then gathered next to it,
+	// and are left out of any further partitioning.
+	// It costs some extra comparisons when the elements are distinct,
+	// but an array with only a few distinct values is sorted in close to linear time.
+	THREE_WAY,
+	
+	// For QSortDouble, the single pivot partition done with SIMD vectors of the CPU's widest size, 
+	// see DoubleSimdPartition. It needs simd/ compiled in and the JVM run with --add-modules jdk.incubator.vector,
+	// without those (or on a CPU without wide enough vectors) it is the same as SINGLE_PIVOT.
+	// QSort has no vectorised partition for objects, so there it is also the same as SINGLE_PIVOT.
+	SIMD,
+	
+	// Two pivots, the 2nd and 4th smallest of a sample of five, split each sub-array into three:
+	// the elements below the lower pivot, those between the pivots, and those above the upper one.
+	// That takes about log3(N) rather than log2(N) passes over the array.
+	// Sub-arrays of fewer than 32 elements are insertion sorted, and select(..) uses SINGLE_PIVOT.
+	DUAL_PIVOT
+}
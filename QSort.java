@@ -1,3 +1,19 @@
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.ToDoubleFunction;
+import java.util.function.ToIntFunction;
+import java.util.function.ToLongFunction;
+
 // In the following class we have a sorting algorithm which was based on the q-sort algorithm.
 // It is rather memory efficient in that when sorting say Doubles,
 // it only requires one extra temp Double to be stored, which is the pivot
@@ -20,33 +36,116 @@
 // However there is some extra overhead.
 
 // Author: Philip Kinlen, (June 2014)
-public class QSort<T extends Comparable<T>> {
-	private T[]      m_arr;
+public class QSort<T> {
+	private T[]                    m_arr;
+	private Comparator<? super T>  m_comparator;
+	private PartitionScheme        m_scheme;
+	private int                    m_smallSortCutoff;   // see m_defaultSmallSortCutoff.
+	private SortStats              m_stats;   // null unless this sort is being instrumented, see SortInstrumentation.
+	
+	// Sub-arrays with at most this many elements are sorted on the calling thread
+	// when using parallelSort(..), rather than being split into further fork/join tasks.
+	private static final int PARALLEL_THRESHOLD = 8192;
+	
+	// Sub-arrays of at most this many elements are insertion sorted, rather than being partitioned 
+	// all the way down to single elements. Each sorter copies it into m_smallSortCutoff when it's made,
+	// unless the sort call passes in a cutoff of its own, so a sort never sees it change part way through.
+	// See setSmallSortCutoff(..).
+	private static volatile int m_defaultSmallSortCutoff = 16;
 	
-	// The reason we have the following variables here 
-	// rather than as local variables inside the sortSub(.) method is because 
-	// we don't want to keep on having to reallocate them.
-	// the recursive call has been set-up so that the different calls won't interfere with 
-	// each-other. It is also thread safe.
-	private T        m_pivot;
-    private int      m_initialPivotIdx;
-	private int      m_curLow;
-	private int      m_curHigh;
-	private boolean  m_workingFromLow;
+	// Sub-arrays with fewer elements than this are insertion sorted in DUAL_PIVOT mode,
+	// the five element pivot sample needs some room around it.
+	private static final int DUAL_PIVOT_MIN_ELMS = 32;
+	
+	// Each thread's sorter for sortAll(..), which is reused for every array the thread sorts.
+	private static final ThreadLocal<QSort<?>> m_batchSorter = 
+			ThreadLocal.withInitial(() -> new QSort<Object>(null, null, PartitionScheme.SINGLE_PIVOT));
 	    
     // The following sorting algorithm is based on q-sort.
     // It tries to minimise the amount of runtime memory usage
 	// The elements of arr will be rearranged.
+	// A String[] is handed over to StringSort, which doesn't compare the strings' shared prefixes over and over,
+	// and a Double[], Long[] or Integer[] to BoxedSort, which sorts their unboxed values.
+	// (To q-sort them anyway, e.g. to compare the two, pass in a PartitionScheme.)
     public  static <S extends Comparable<S>> void sort(S[] arr, boolean ascending){
     	
+    	if ( arr instanceof String[]) {
+    		StringSort.sort((String[]) (Object[]) arr, ascending);
+    		return;
+    	}
+    	if ( BoxedSort.isSupported(arr)) {
+    		BoxedSort.sort(arr, ascending);
+    		return;
+    	}
+    	sort(arr, ascending, PartitionScheme.SINGLE_PIVOT);
+    }
+    //////////////////////////////////////////////////////////////////////////////
+    public  static <S extends Comparable<S>> void sort(S[] arr, boolean ascending, PartitionScheme scheme){
+    	sort(arr, Comparator.<S>naturalOrder(), ascending, scheme);
+    }
+    //////////////////////////////////////////////////////////////////////////////
+    // As sort(arr, ascending, scheme), but insertion sorting sub-arrays of at most smallSortCutoff elements,
+    // just for this sort, rather than the default set by setSmallSortCutoff(..).
+    public  static <S extends Comparable<S>> void sort(S[] arr, boolean ascending, PartitionScheme scheme, int smallSortCutoff){
+    	
     	if ( arr == null)
     		return; // possibly could give a warning.
     	
-        Ordering ordering = getOrdering(arr);
+    	QSort<S> sorter = new QSort<S>(arr, Comparator.<S>naturalOrder(), scheme);
+    	
+    	sorter.m_smallSortCutoff = Math.max(0, smallSortCutoff);
+    	sorter.sortArr(ascending);
+    }
+    //////////////////////////////////////////////////////////////////////////////
+    // Sorts arr into the order given by comparator, which lets us sort types that aren't Comparable,
+    // or sort Comparable types into some other order. 
+    // For descending order, pass in comparator.reversed().
+    public  static <S> void sort(S[] arr, Comparator<? super S> comparator){
+    	sort(arr, comparator, true, PartitionScheme.SINGLE_PIVOT);
+    }
+    //////////////////////////////////////////////////////////////////////////////
+    private static <S> void sort(S[] arr, Comparator<? super S> comparator, boolean ascending, PartitionScheme scheme){
+    	
+    	if ( arr == null)
+    		return; // possibly could give a warning.
+    	
+    	new QSort<S>(arr, comparator, scheme).sortArr(ascending);
+    }
+    //////////////////////////////////////////////////////////////////////////////
+    // As sort(..), but rather than only spotting arrays which are already entirely in order, 
+    // it looks for the natural ascending and descending runs. The descending runs are reversed 
+    // and then the runs are merged in place, so an array which is nearly sorted costs close to O(N).
+    // If there turn out to be too many runs for that to pay off, we just q-sort the array.
+    public  static <S extends Comparable<S>> void adaptiveSort(S[] arr, boolean ascending){
+    	
+    	if ( arr == null)
+    		return; // possibly could give a warning.
+    	
+    	QSort<S> sorter = new QSort<S>(arr, Comparator.<S>naturalOrder(), PartitionScheme.SINGLE_PIVOT);
+    	sorter.adaptiveSortSub(0, arr.length);
+    	
+    	if ( ! ascending)
+    		reverseArr(arr);
+    }
+    //////////////////////////////////////////////////////////////////////////////
+    // As sort(..) above, but once a sub-array has been partitioned, the two sides are
+    // sorted in parallel fork/join tasks on the common pool.
+    // Sub-arrays below PARALLEL_THRESHOLD are sorted sequentially within a single task.
+    public  static <S extends Comparable<S>> void parallelSort(S[] arr, boolean ascending){
+    	parallelSort(arr, ascending, PartitionScheme.SINGLE_PIVOT);
+    }
+    //////////////////////////////////////////////////////////////////////////////
+    public  static <S extends Comparable<S>> void parallelSort(S[] arr, boolean ascending, PartitionScheme scheme){
+    	
+    	if ( arr == null)
+    		return; // possibly could give a warning.
+    	
+    	Comparator<S> comparator = Comparator.naturalOrder();
+        Ordering      ordering   = getOrdering(arr, comparator);
         
         if (ordering == Ordering.MIXED) {
-            QSort<S> sorter = new QSort<S>(arr);                	
-        	sorter.sortSub(0, arr.length-1);       // The main sorting is done here.
+            QSort<S> sorter = new QSort<S>(arr, comparator, scheme);
+            ForkJoinPool.commonPool().invoke(sorter.new ParallelSortTask(0, arr.length-1, IntroSort.depthBudget(arr.length)));
         	
         	if ( ! ascending)
         		reverseArr(arr);
@@ -54,19 +153,259 @@ public class QSort<T extends Comparable<T>> {
         }  else if (  (!ascending && ordering == Ordering.NON_STRICT_ASCENDING )
         		    ||( ascending && ordering == Ordering.NON_STRICT_DESCENDING) )   
         	reverseArr(arr);
-        
-        // else nothing more to do
-        	
     }
     //////////////////////////////////////////////////////////////////////////////
-    private static  <S extends Comparable<S>> Ordering getOrdering(S[] arr){
+    // Sorts each of the arrays (as sort(arr, ascending) would), spreading the arrays over the common fork/join pool.
+    // This is for a batch of many small arrays, which are each too small for parallelSort(..) to help with.
+    // Each thread reuses its own sorter, so once warmed up the only allocations are 
+    // the few fork/join tasks per batch, none per array.
+    public  static <S extends Comparable<S>> void sortAll(S[][] arrs, boolean ascending){
+    	
+    	if ( arrs == null)
+    		return; // possibly could give a warning.
+    	
+    	ForkJoinPool.commonPool().invoke(new BatchSortTask<S>(arrs, 0, arrs.length, ascending, QSortDouble.batchGrain(arrs.length)));
+    }
+    //////////////////////////////////////////////////////////////////////////////
+    // As sortAll(..), but returns straight away, with a future that completes once all of the arrays are sorted.
+    public  static <S extends Comparable<S>> CompletableFuture<Void> sortAllAsync(S[][] arrs, boolean ascending){
+    	return sortAllAsync(arrs, ascending, ForkJoinPool.commonPool());
+    }
+    //////////////////////////////////////////////////////////////////////////////
+    // The arrays are split into contiguous chunks, each of which is one task for executor,
+    // e.g. a pool of the request threads, or an executor of virtual threads on Java versions that have them.
+    public  static <S extends Comparable<S>> CompletableFuture<Void> sortAllAsync(S[][] arrs, boolean ascending, Executor executor){
+    	
+    	if ( arrs == null)
+    		return CompletableFuture.completedFuture(null);
+    	
+    	int                    grain  = QSortDouble.batchGrain(arrs.length);
+    	CompletableFuture<?>[] chunks = new CompletableFuture<?>[(arrs.length + grain - 1) / grain];
+    	
+    	for( int c = 0; c < chunks.length; c++) {
+    		final int from = c * grain;
+    		final int to   = Math.min(from + grain, arrs.length);
+    		
+    		chunks[c] = CompletableFuture.runAsync(() -> sortChunk(arrs, from, to, ascending), executor);
+    	}
+    	return CompletableFuture.allOf(chunks);
+    }
+    //////////////////////////////////////////////////////////////////////////////
+    // Sorts arrs from index 'from' inclusive to 'to' exclusive, with this thread's reusable sorter.
+    @SuppressWarnings("unchecked")
+    private static <S extends Comparable<S>> void sortChunk(S[][] arrs, int from, int to, boolean ascending){
+    	QSort<S> sorter = (QSort<S>) m_batchSorter.get();
+    	
+    	sorter.m_comparator      = Comparator.<S>naturalOrder();
+    	sorter.m_smallSortCutoff = m_defaultSmallSortCutoff;   // the sorter outlives the sorts, so it needs bringing up to date.
+    	
+    	for( int i = from; i < to; i++) {
+    		if ( arrs[i] == null)
+    			continue;
+    		
+    		sorter.m_arr = arrs[i];
+    		sorter.sortArr(ascending);
+    	}
+    	sorter.m_arr = null;  // so that we don't hold on to the caller's array.
+    }
+    //////////////////////////////////////////////////////////////////////////////
+    // The following three methods sort the objects by a primitive key.
+    // Each object's key is pulled out just once into a primitive buffer, the keys are sorted, 
+    // and then the objects are moved into the same order.
+    // So the key extractor is called N times, rather than a compareTo(..) for every comparison,
+    // at the cost of an extra long and int per element while sorting.
+    public  static <S> void sortByLongKey(S[] arr, ToLongFunction<? super S> keyExtractor, boolean ascending){
+    	
+    	if ( arr == null)
+    		return; // possibly could give a warning.
+    	
+    	long[] keys = new long[arr.length];
+    	
+    	for( int i = 0; i < arr.length; i++)
+    		keys[i] = keyExtractor.applyAsLong(arr[i]);
+    	
+    	KeyIndexSort.sort(arr, keys, ascending);
+    }
+    //////////////////////////////////////////////////////////////////////////////
+    // The doubles are ordered as by Double.compare(..), so -0.0 comes before 0.0 and NaN comes last.
+    public  static <S> void sortByDoubleKey(S[] arr, ToDoubleFunction<? super S> keyExtractor, boolean ascending){
+    	
+    	if ( arr == null)
+    		return; // possibly could give a warning.
+    	
+    	long[] keys = new long[arr.length];
+    	
+    	for( int i = 0; i < arr.length; i++)
+    		keys[i] = KeyIndexSort.sortableBits(keyExtractor.applyAsDouble(arr[i]));
+    	
+    	KeyIndexSort.sort(arr, keys, ascending);
+    }
+    //////////////////////////////////////////////////////////////////////////////
+    public  static <S> void sortByIntKey(S[] arr, ToIntFunction<? super S> keyExtractor, boolean ascending){
+    	
+    	if ( arr == null)
+    		return; // possibly could give a warning.
+    	
+    	long[] keys = new long[arr.length];
+    	
+    	for( int i = 0; i < arr.length; i++)
+    		keys[i] = keyExtractor.applyAsInt(arr[i]);
+    	
+    	KeyIndexSort.sort(arr, keys, ascending);
+    }
+    //////////////////////////////////////////////////////////////////////////////
+    // Rearranges arr so that arr[k] is the element that sort(arr, true) would put there,
+    // with the elements before it all <= arr[k] and those after it all >= arr[k]. Returns arr[k].
+    // It partitions as sort(..) does, but only carries on into the side containing k, 
+    // so the expected cost is O(N) rather than O(N log(N)). A null arr gives null.
+    public  static <S extends Comparable<S>> S select(S[] arr, int k){
+    	
+    	if ( arr == null)
+    		return null; // possibly could give a warning.
+    	
+    	if ( k < 0 || k >= arr.length)
+    		throw new ArrayIndexOutOfBoundsException(k);
+    	
+    	QSort<S> sorter = new QSort<S>(arr, Comparator.<S>naturalOrder(), PartitionScheme.SINGLE_PIVOT);
+    	sorter.selectSub(0, arr.length - 1, k, IntroSort.depthBudget(arr.length));
+    	return arr[k];
+    }
+    //////////////////////////////////////////////////////////////////////////////
+    // Puts the k smallest elements, in ascending order, into arr[0] to arr[k-1].
+    // The order of the remaining elements is unspecified.
+    public  static <S extends Comparable<S>> void partialSort(S[] arr, int k){
+    	
+    	if ( arr == null)
+    		return; // possibly could give a warning.
+    	
+    	if ( k < 0 || k > arr.length)
+    		throw new ArrayIndexOutOfBoundsException(k);
+    	
+    	QSort<S> sorter = new QSort<S>(arr, Comparator.<S>naturalOrder(), PartitionScheme.SINGLE_PIVOT);
+    	
+    	if ( k < arr.length)
+    		sorter.selectSub(0, arr.length - 1, k, IntroSort.depthBudget(arr.length));
+    	
+    	sorter.sortSub(0, k - 1, IntroSort.depthBudget(k));
+    }
+    //////////////////////////////////////////////////////////////////////////////
+    // Returns the k largest elements of arr, largest first, leaving arr untouched.
+    // It keeps a min-heap of the best k seen so far, so it needs only O(k) memory and O(N log(k)) time.
+    public  static <S extends Comparable<S>> S[] topK(S[] arr, int k){
+    	
+    	if ( arr == null)
+    		return null;
+    	
+    	if ( k < 0)
+    		throw new IllegalArgumentException("k must not be negative: " + k);
+    	
+    	S[] heap = Arrays.copyOf(arr, Math.min(k, arr.length));  // just to get an array of the right type and size.
+    	int size = 0;
+    	
+    	for( S elm : arr) {
+    		if ( size < heap.length) {           // still filling the heap, sift the new element up
+    			int i = size++;
+    			
+    			while ( i > 0 && heap[(i - 1) / 2].compareTo(elm) > 0) {
+    				heap[i] = heap[(i - 1) / 2];
+    				i       = (i - 1) / 2;
+    			}
+    			heap[i] = elm;
+    			
+    		} else if ( size > 0 && elm.compareTo(heap[0]) > 0) {  // replace the smallest of the best k
+    			int i = 0;
+    			int child;
+    			
+    			while ( (child = 2 * i + 1) < size) {
+    				if ( child + 1 < size && heap[child + 1].compareTo(heap[child]) < 0)
+    					child++;
+    				
+    				if ( heap[child].compareTo(elm) >= 0)
+    					break;
+    				
+    				heap[i] = heap[child];
+    				i       = child;
+    			}
+    			heap[i] = elm;
+    		}
+    	}
+    	sort(heap, false);
+    	return heap;
+    }
+    //////////////////////////////////////////////////////////////////////////////
+    // Returns an iterator over arr's elements in sorted order, which only sorts as far as it has been read,
+    // e.g. for showing the first few pages of a big result.
+    // Each call to next() partitions the sub-array holding the next element until that element is in its final place,
+    // and keeps the pivots on a small stack for the calls after (Paredes and Navarro's incremental q-sort),
+    // so reading the first m of N elements costs about O(N + m log(m)), rather than the O(N log(N)) of sorting them all.
+    // arr is rearranged as we go: the elements returned so far are at its start, in order, 
+    // and the rest are after them in an unspecified order. arr mustn't be changed by anything else while iterating.
+    public  static <S extends Comparable<S>> Iterator<S> incrementalIterator(S[] arr, boolean ascending){
+    	Comparator<S> comparator = Comparator.naturalOrder();
+    	
+    	return incrementalIterator(arr, ascending ? comparator : comparator.reversed());
+    }
+    //////////////////////////////////////////////////////////////////////////////
+    public  static <S> Iterator<S> incrementalIterator(S[] arr, Comparator<? super S> comparator){
+    	
+    	if ( arr == null)
+    		return Collections.emptyIterator(); // possibly could give a warning.
+    	
+    	return new IncrementalIterator<S>(new QSort<S>(arr, comparator, PartitionScheme.SINGLE_PIVOT));
+    }
+    //////////////////////////////////////////////////////////////////////////////
+    // incrementalIterator(..) as a Spliterator, e.g. for StreamSupport.stream(..).
+    // It can only split by taking a batch of the sorted elements off the front, so its streams are best left sequential.
+    public  static <S extends Comparable<S>> Spliterator<S> incrementalSpliterator(S[] arr, boolean ascending){
+    	
+    	if ( arr == null)
+    		return Spliterators.emptySpliterator(); // possibly could give a warning.
+    	
+    	return Spliterators.spliterator(incrementalIterator(arr, ascending), arr.length, Spliterator.ORDERED);
+    }
+    //////////////////////////////////////////////////////////////////////////////
+    // Returns a new array of sortedArr's elements, which must already be in order, and delta's elements, all in order.
+    // Only delta is sorted, and it's then merged in, see DeltaMerger, so for a small delta
+    // this is much cheaper than sorting everything again. sortedArr and delta are left untouched.
+    public  static <S extends Comparable<S>> S[] mergeSortedDelta(S[] sortedArr, S[] delta, boolean ascending){
+    	Comparator<S> comparator = Comparator.naturalOrder();
+
+    	if ( sortedArr == null || delta == null)
+    		return sortedArr; // possibly could give a warning.
+
+    	return DeltaMerger.merge(sortedArr, delta, ascending ? comparator : comparator.reversed());
+    }
+    //////////////////////////////////////////////////////////////////////////////
+    // The in-place version of the above, for an array with spare room at its end that the delta is appended into.
+    // arr[0] to arr[sortedLen-1] must already be in order, and arr[sortedLen] to arr[len-1] are the new elements.
+    // The elements whose indexes are set in removed are dropped (removed may be null, and isn't changed).
+    // Afterwards the remaining elements are in order at the start of arr, the number of them is returned,
+    // and the slots after them, up to len, are null.
+    public  static <S extends Comparable<S>> int mergeSortedDelta(S[] arr, int sortedLen, int len, boolean ascending, BitSet removed){
+    	Comparator<S> comparator = Comparator.naturalOrder();
+
+    	return mergeSortedDelta(arr, sortedLen, len, ascending ? comparator : comparator.reversed(), removed);
+    }
+    //////////////////////////////////////////////////////////////////////////////
+    public  static <S> int mergeSortedDelta(S[] arr, int sortedLen, int len, Comparator<? super S> comparator, BitSet removed){
+
+    	if ( arr == null)
+    		return 0; // possibly could give a warning.
+
+    	SortRange.check(arr.length, 0, len);
+    	SortRange.check(len, 0, sortedLen);
+
+    	return DeltaMerger.merge(arr, sortedLen, len, comparator, removed);
+    }
+    //////////////////////////////////////////////////////////////////////////////
+    private static  <S> Ordering getOrdering(S[] arr, Comparator<? super S> comparator){
     	int equalCounter = 0;
     	int ascCounter   = 0;
     	int descCounter  = 0;   	
     	int i            = 1;
     	    	
     	while (  (i < arr.length)  &&  (ascCounter * descCounter == 0) ){
-    		int cmp = arr[i-1].compareTo(arr[i]);
+    		int cmp = comparator.compare(arr[i-1], arr[i]);
     		
     		if( cmp == 0)
     			equalCounter++;
@@ -89,60 +428,608 @@ public class QSort<T extends Comparable<T>> {
     
     }
     //////////////////////////////////////////////////////////////////////////////
+    // The body of sort(..): sorts all of m_arr with m_comparator.
+    // If the array is already in order (either way round) we don't need to partition it at all.
+    private void sortArr(boolean ascending){
+    	SortStats             stats      = SortInstrumentation.start("QSort", m_arr.length);
+    	Comparator<? super T> comparator = m_comparator;
+    	
+    	if ( stats != null)
+    		m_comparator = stats.<T>counting(comparator);
+    	
+        Ordering ordering = getOrdering(m_arr, m_comparator);
+        
+        if (ordering == Ordering.MIXED) {
+            int budget = IntroSort.depthBudget(m_arr.length);
+            
+            if ( stats != null)
+            	stats.setDepthBudget(budget);
+            
+            m_stats = stats;
+        	sortSub(0, m_arr.length-1, budget); // The main sorting is done here.
+        	
+        	if ( ! ascending)
+        		reverseArr(m_arr);
+        	
+        }  else if (  (!ascending && ordering == Ordering.NON_STRICT_ASCENDING )
+        		    ||( ascending && ordering == Ordering.NON_STRICT_DESCENDING) )   
+        	reverseArr(m_arr);
+        
+        // else nothing more to do
+        
+        SortInstrumentation.finish(stats);
+        m_comparator = comparator;
+        m_stats      = null;
+    }
+    //////////////////////////////////////////////////////////////////////////////
     // will sort m_arr's elements between low and high inclusive.
-    private void sortSub(int low, int high){    
-       int available; // at run-time we can have up to Order(log(N)) instances of this int
-                      // on the stack concurrently.
-    	
-       if ( high <=  low ) // when there are 0 or 1 elements, there is nothing to be done.
-          return;
-       else { // we use this else branch to ensure that as many temporary variables as possible
-    	      // are removed from the stack before the recursive call sortSub(..) below.
-
-		   available         = low;	   
-	       m_workingFromLow  = false;
-	       m_curLow          = low;   // The current low  index. 
-	       m_curHigh         = high;  // The current high index.
-    	       	   
-    	   m_initialPivotIdx = choosePivotIdx();    	   
-		   m_pivot           = m_arr[m_initialPivotIdx];
-		   
-		   if ( m_initialPivotIdx != low)
-			    m_arr[m_initialPivotIdx] = m_arr[low];
-		   	    	
-	       while ( m_curLow   < m_curHigh){
-
-	           if (m_workingFromLow && m_arr[++m_curLow].compareTo(m_pivot) > 0){
-		           m_arr[available]  = m_arr[m_curLow];
-		           available         = m_curLow;
-		           m_workingFromLow  = false;
-	
-	           } else if (!m_workingFromLow && m_pivot.compareTo(m_arr[m_curHigh--]) > 0){
-		           m_arr[available]  = m_arr[m_curHigh + 1];
-		           available         = m_curHigh + 1;
-		           m_workingFromLow  = true;   		           
-	           }
-	        }  // end of while  
-	        m_arr[available] = m_pivot;  // the pivot is now in the correct position. 
-       } 
-       // now we have a recursive call, to sort the sub-arrays
-       sortSub(low,           available -1);  // sorting the elms from low to (available-1)
-       sortSub(available + 1, high);          // sorting the elements from (available+1) to (high)
+    // depthBudget is the number of further partitioning levels allowed before we fall back to heap sort.
+    private void sortSub(int low, int high, int depthBudget){    
+       int available; // at run-time we can have up to log2(N) instances of these ints
+       int runLast;   // on the stack concurrently.
+    	
+       if ( m_scheme == PartitionScheme.DUAL_PIVOT) {
+    	   dualPivotSortSub(low, high, depthBudget);
+    	   return;
+       }
+       
+       while ( high > low ) { // when there are 0 or 1 elements, there is nothing to be done.
+    	   
+    	   if ( high - low < m_smallSortCutoff) {
+    		   insertionSort(low, high);
+    		   return;
+    	   }
+    	   
+    	   if ( depthBudget-- == 0) {
+    		   if ( m_stats != null)
+    			   m_stats.heapSorted();
+    		   
+    		   heapSort(low, high);
+    		   return;
+    	   }
+
+    	   available = partition(low, high);
+    	   runLast   = pivotRunLast(available, high);
+    	   
+    	   if ( m_stats != null) // the comparisons are counted by the comparator, see SortStats.counting(..)
+    		   m_stats.partitioned(high - low + 1, Math.min(available - low, high - runLast), depthBudget);
+       
+    	   // We only recurse into the smaller side and loop round to sort the larger side,
+    	   // so the stack never gets more than log2(N) calls deep.
+    	   if ( available - low < high - runLast) {
+    		   sortSub(low, available - 1, depthBudget); // sorting the elms from low to (available-1)
+    		   low  = runLast + 1;
+    	   } else {
+    		   sortSub(runLast + 1, high, depthBudget);  // sorting the elements from (runLast+1) to (high)
+    		   high = available - 1;
+    	   }
+       }
+    }
+    //////////////////////////////////////////////////////////////////////////////
+    // As sortSub(..), but partitioning around two pivots, p1 <= p2, into three sub-arrays:
+    // the elements < p1, those from p1 to p2, and those > p2.
+    // We recurse into the two smaller ones and loop round to sort the largest,
+    // so again the stack never gets more than log2(N) calls deep.
+    private void dualPivotSortSub(int low, int high, int depthBudget){
+    	
+    	while ( high > low ) {
+    		
+    		if ( high - low < m_smallSortCutoff || high - low + 1 < DUAL_PIVOT_MIN_ELMS) {
+    			insertionSort(low, high);
+    			return;
+    		}
+    		
+    		if ( depthBudget-- == 0) {
+    			if ( m_stats != null)
+    				m_stats.heapSorted();
+    			
+    			heapSort(low, high);
+    			return;
+    		}
+    		
+    		long pivotIdxs = dualPivotPartition(low, high);
+    		int  p1Idx     = (int) (pivotIdxs >>> 32);
+    		int  p2Idx     = (int) pivotIdxs;
+    		int  midLow    = p1Idx + 1;
+    		int  midHigh   = p2Idx - 1;
+    		
+    		if ( m_comparator.compare(m_arr[p1Idx], m_arr[p2Idx]) == 0)  // then everything between the pivots is equal to them.
+    			midHigh = p1Idx;
+    		
+    		int lowSize  = p1Idx - low;
+    		int midSize  = midHigh - midLow + 1;
+    		int highSize = high - p2Idx;
+    		
+    		if ( m_stats != null) // the comparisons are counted by the comparator, see SortStats.counting(..)
+    			m_stats.partitioned(high - low + 1, Math.min(midSize, Math.min(lowSize, highSize)), depthBudget);
+    		
+    		if ( lowSize >= midSize && lowSize >= highSize) {
+    			sortSub(midLow, midHigh, depthBudget);
+    			sortSub(p2Idx + 1, high, depthBudget);
+    			high = p1Idx - 1;
+    		} else if ( midSize >= highSize) {
+    			sortSub(low, p1Idx - 1, depthBudget);
+    			sortSub(p2Idx + 1, high, depthBudget);
+    			low  = midLow;
+    			high = midHigh;
+    		} else {
+    			sortSub(low, p1Idx - 1, depthBudget);
+    			sortSub(midLow, midHigh, depthBudget);
+    			low  = p2Idx + 1;
+    		}
+    	}
+    }
+    //////////////////////////////////////////////////////////////////////////////
+    // Sorts m_arr's elements between low inclusive and high EXCLUSIVE by merging their natural runs.
+    // (The merging is simpler to follow with exclusive ends, so all of the run code below uses them.)
+    private void adaptiveSortSub(int low, int high){
+    	int[] runEnds = new int[maxRuns(high - low) + 1]; // runEnds[0] is low, run r is from runEnds[r] to runEnds[r+1]
+    	int   numRuns = 0;
+    	
+    	runEnds[0] = low;
+    	
+    	for( int i = low; i < high; ) {
+    		int runEnd = i + 1;
+    		
+    		if ( runEnd < high && m_comparator.compare(m_arr[runEnd], m_arr[i]) < 0) {   // a strictly descending run, which we reverse
+    			while ( runEnd + 1 < high && m_comparator.compare(m_arr[runEnd + 1], m_arr[runEnd]) < 0)
+    				runEnd++;
+    			
+    			reverseRange(i, ++runEnd);
+    		} else {
+    			while ( runEnd < high && m_comparator.compare(m_arr[runEnd], m_arr[runEnd - 1]) >= 0)
+    				runEnd++;
+    		}
+    		
+    		if ( numRuns + 1 == runEnds.length) {  // the array isn't nearly sorted, so merging won't pay off.
+    			sortSub(low, high - 1, IntroSort.depthBudget(high - low));
+    			return;
+    		}
+    		runEnds[++numRuns] = runEnd;
+    		i                  = runEnd;
+    	}
+    	
+    	while ( numRuns > 1) {   // merge neighbouring pairs of runs until only one is left
+    		int merged = 0;
+    		
+    		for( int r = 0; r < numRuns; r += 2) {
+    			if ( r + 1 < numRuns)
+    				mergeInPlace(runEnds[r], runEnds[r + 1], runEnds[r + 2]);
+    			
+    			runEnds[++merged] = runEnds[Math.min(r + 2, numRuns)];
+    		}
+    		numRuns = merged;
+    	}
+    }
+    //////////////////////////////////////////////////////////////////////////////
+    // The most runs adaptiveSortSub(..) will merge, before deciding that it should q-sort instead.
+    private static int maxRuns(int numElms){
+    	return Math.max(64, numElms >>> 10);
+    }
+    //////////////////////////////////////////////////////////////////////////////
+    // Merges the sorted ranges [low, mid) and [mid, high) without any buffer.
+    // First we skip the elements which are already in place: the start of the left run that is <= m_arr[mid], 
+    // and the end of the right run that is >= m_arr[mid-1]. With a few late arrivals that leaves very little.
+    // Otherwise we split the longer run in half, find where its middle element goes in the other run,
+    // rotate the two middle pieces past each other, and carry on with the two smaller merges.
+    private void mergeInPlace(int low, int mid, int high){
+    	
+    	while ( low < mid && mid < high) {
+    		
+    		low  = upperBound(low, mid, m_arr[mid]);
+    		high = lowerBound(mid, high, m_arr[mid - 1]);
+    		
+    		if ( low == mid || mid == high)
+    			return;
+    		
+    		int leftCut;
+    		int rightCut;
+    		
+    		if ( mid - low >= high - mid) {
+    			leftCut  = (low + mid) >>> 1;
+    			rightCut = lowerBound(mid, high, m_arr[leftCut]);
+    		} else {
+    			rightCut = (mid + high) >>> 1;
+    			leftCut  = upperBound(low, mid, m_arr[rightCut]);
+    		}
+    		rotate(leftCut, mid, rightCut);
+    		
+    		int newMid = leftCut + (rightCut - mid);
+    		
+    		// recurse into the smaller merge and loop round for the larger one.
+    		if ( newMid - low < high - newMid) {
+    			mergeInPlace(low, leftCut, newMid);
+    			low = newMid;
+    			mid = rightCut;
+    		} else {
+    			mergeInPlace(newMid, rightCut, high);
+    			high = newMid;
+    			mid  = leftCut;
+    		}
+    	}
+    }
+    //////////////////////////////////////////////////////////////////////////////
+    // Swaps the adjacent ranges [low, mid) and [mid, high), by reversing each of them and then the whole.
+    private void rotate(int low, int mid, int high){
+    	reverseRange(low, mid);
+    	reverseRange(mid, high);
+    	reverseRange(low, high);
+    }
+    //////////////////////////////////////////////////////////////////////////////
+    private void reverseRange(int low, int high){
+    	
+    	for( int i = low, j = high - 1; i < j; i++, j--) {
+    		T temp   = m_arr[i];
+    		m_arr[i] = m_arr[j];
+    		m_arr[j] = temp;
+    	}
+    }
+    //////////////////////////////////////////////////////////////////////////////
+    // The first index in the sorted range [low, high) whose element is > val, or high if there isn't one.
+    private int upperBound(int low, int high, T val){
+    	
+    	while ( low < high) {
+    		int mid = (low + high) >>> 1;
+    		
+    		if ( m_comparator.compare(m_arr[mid], val) > 0)
+    			high = mid;
+    		else
+    			low  = mid + 1;
+    	}
+    	return low;
+    }
+    //////////////////////////////////////////////////////////////////////////////
+    // The first index in the sorted range [low, high) whose element is >= val, or high if there isn't one.
+    private int lowerBound(int low, int high, T val){
+    	
+    	while ( low < high) {
+    		int mid = (low + high) >>> 1;
+    		
+    		if ( m_comparator.compare(m_arr[mid], val) >= 0)
+    			high = mid;
+    		else
+    			low  = mid + 1;
+    	}
+    	return low;
+    }
+    //////////////////////////////////////////////////////////////////////////////
+    // Partitions m_arr's elements between low and high inclusive until the element at k is in its final place.
+    // Unlike sortSub(..) we only need to carry on with the side that contains k.
+    private void selectSub(int low, int high, int k, int depthBudget){
+       int available;
+       int runLast;
+    	
+       while ( high > low ) {
+    	   
+    	   if ( depthBudget-- == 0) {
+    		   heapSort(low, high);
+    		   return;
+    	   }
+
+    	   available = partition(low, high);
+    	   runLast   = pivotRunLast(available, high);
+    	   
+    	   if ( k < available)
+    		   high = available - 1;
+    	   else if ( k > runLast)
+    		   low  = runLast + 1;
+    	   else
+    		   return;   // k is the pivot, or equal to it.
+       }
+    }
+    //////////////////////////////////////////////////////////////////////////////
+    // Partitions m_arr's elements between low and high inclusive (where low < high)
+    // using m_scheme, and returns the index at which the pivot ends up.
+    private int partition(int low, int high){
+    	
+    	if ( m_scheme == PartitionScheme.THREE_WAY)
+    		return holePartitionTiesRight(low, high);
+    	else
+    		return holePartition(low, high);
+    }
+    //////////////////////////////////////////////////////////////////////////////
+    // Once partition(..) has put a pivot at index available, returns the index of the last 
+    // of the run of elements from available that are in their final place.
+    private int pivotRunLast(int available, int high){
+    	
+    	if ( m_scheme == PartitionScheme.THREE_WAY)
+    		return gatherPivotEquals(available, high);
+    	else
+    		return available;
+    }
+    //////////////////////////////////////////////////////////////////////////////
+    // Partitions m_arr's elements between low and high inclusive (where low < high),
+    // and returns the index at which the pivot ends up.
+    // All of the partition state is held in local variables, which are released before
+    // the caller recurses, so calls working on disjoint ranges can run concurrently.
+    private int holePartition(int low, int high){
+       int     available      = low;
+       boolean workingFromLow = false;
+       int     curLow         = low;   // The current low  index. 
+       int     curHigh        = high;  // The current high index.
+       int     moves          = 0;
+       int     pivotIdx       = choosePivotIdx(low, high);
+       T       pivot          = m_arr[pivotIdx];
+	   
+       if ( pivotIdx != low)
+    	   m_arr[pivotIdx] = m_arr[low];
+	   	    	
+       while ( curLow   < curHigh){
+
+           if (workingFromLow && m_comparator.compare(m_arr[++curLow], pivot) > 0){
+	           m_arr[available]  = m_arr[curLow];
+	           available         = curLow;
+	           workingFromLow    = false;
+	           moves++;
+
+           } else if (!workingFromLow && m_comparator.compare(pivot, m_arr[curHigh--]) > 0){
+	           m_arr[available]  = m_arr[curHigh + 1];
+	           available         = curHigh + 1;
+	           workingFromLow    = true;
+	           moves++;
+           }
+        }  // end of while  
+        m_arr[available] = pivot;  // the pivot is now in the correct position. 
+        
+        if ( m_stats != null)
+        	m_stats.addMoves(moves + (pivotIdx != low ? 2 : 1));
+        
+        return available;
+    }
+    //////////////////////////////////////////////////////////////////////////////
+    // As holePartition(..), except that elements equal to the pivot all end up on the high side,
+    // i.e. everything below the returned index is strictly less than the pivot.
+    // That lets gatherPivotEquals(..) find all of the pivot's equals above it.
+    private int holePartitionTiesRight(int low, int high){
+       int     available      = low;
+       boolean workingFromLow = false;
+       int     curLow         = low;
+       int     curHigh        = high;
+       int     moves          = 0;
+       int     pivotIdx       = choosePivotIdx(low, high);
+       T       pivot          = m_arr[pivotIdx];
+	   
+       if ( pivotIdx != low)
+    	   m_arr[pivotIdx] = m_arr[low];
+	   	    	
+       while ( curLow   < curHigh){
+
+           if (workingFromLow && m_comparator.compare(m_arr[++curLow], pivot) >= 0){
+	           m_arr[available]  = m_arr[curLow];
+	           available         = curLow;
+	           workingFromLow    = false;
+	           moves++;
+
+           } else if (!workingFromLow && m_comparator.compare(pivot, m_arr[curHigh--]) > 0){
+	           m_arr[available]  = m_arr[curHigh + 1];
+	           available         = curHigh + 1;
+	           workingFromLow    = true;
+	           moves++;
+           }
+        }  // end of while  
+        m_arr[available] = pivot;
+        
+        if ( m_stats != null)
+        	m_stats.addMoves(moves + (pivotIdx != low ? 2 : 1));
+        
+        return available;
+    }
+    //////////////////////////////////////////////////////////////////////////////
+    // All the elements from (pivotIdx + 1) to high inclusive are >= the pivot at pivotIdx.
+    // Moves the ones equal to the pivot down next to it, and returns the index of the last of them.
+    // This is another pass of the hole-moving scheme: we take out the first element to make the hole,
+    // then move equal elements down and greater elements up, and finally put that element 
+    // back in the hole between the two groups. So we still only need one temp element.
+    private int gatherPivotEquals(int pivotIdx, int high){
+       int     low            = pivotIdx + 1;
+       
+       if ( low > high)
+    	   return pivotIdx;
+       
+       T       pivot          = m_arr[pivotIdx]; // not a copy, the pivot stays where it is
+       T       temp           = m_arr[low];
+       int     available      = low;
+       boolean workingFromLow = false;
+       int     curLow         = low;
+       int     curHigh        = high;
+       int     moves          = 0;
+	   	    	
+       while ( curLow   < curHigh){
+
+           if (workingFromLow && m_comparator.compare(m_arr[++curLow], pivot) > 0){
+	           m_arr[available]  = m_arr[curLow];
+	           available         = curLow;
+	           workingFromLow    = false;
+	           moves++;
+
+           } else if (!workingFromLow && m_comparator.compare(pivot, m_arr[curHigh--]) >= 0){
+	           m_arr[available]  = m_arr[curHigh + 1];
+	           available         = curHigh + 1;
+	           workingFromLow    = true;
+	           moves++;
+           }
+        }  // end of while  
+        m_arr[available] = temp;
+        
+        if ( m_stats != null)
+        	m_stats.addMoves(moves + 1);
+        
+        return ( m_comparator.compare(temp, pivot) > 0 ? available - 1 : available);
+    }
+    //////////////////////////////////////////////////////////////////////////////
+    // Partitions m_arr's elements between low and high inclusive (at least DUAL_PIVOT_MIN_ELMS of them)
+    // around the 2nd and 4th smallest, p1 and p2, of five elements spread evenly around the middle.
+    // Returns the indexes that p1 and p2 end up at, packed into a long as (p1Idx << 32) | p2Idx.
+    // This is the same partition as QSortDouble.dualPivotPartition(..), which explains how it works.
+    private long dualPivotPartition(int low, int high){
+    	int seventh = (high - low + 1) / 7;
+    	int e3      = (low + high) >>> 1;
+    	int e2      = e3 - seventh;
+    	int e1      = e2 - seventh;
+    	int e4      = e3 + seventh;
+    	int e5      = e4 + seventh;
+    	
+    	sortFive(e1, e2, e3, e4, e5);
+    	
+    	T   p1    = m_arr[e2];
+    	T   p2    = m_arr[e4];
+    	int less  = low + 1;
+    	int great = high - 1;
+    	int moves = 2;
+    	
+    	m_arr[e2] = m_arr[low];
+    	m_arr[e4] = m_arr[high];
+    	
+    	while ( m_comparator.compare(m_arr[less],  p1) < 0) less++;
+    	while ( m_comparator.compare(m_arr[great], p2) > 0) great--;
+    	
+    	outer:
+    	for( int k = less; k <= great; k++) {
+    		T elm = m_arr[k];
+    		
+    		if ( m_comparator.compare(elm, p1) < 0) {
+    			if ( k != less) {
+    				m_arr[k] = m_arr[less];
+    				moves++;
+    			}
+    			m_arr[less++] = elm;
+    			moves++;
+    			
+    		} else if ( m_comparator.compare(elm, p2) > 0) {
+    			while ( m_comparator.compare(m_arr[great], p2) > 0) {
+    				if ( great-- == k)
+    					break outer;
+    			}
+    			
+    			if ( m_comparator.compare(m_arr[great], p1) < 0) {
+    				m_arr[k]      = m_arr[less];
+    				m_arr[less++] = m_arr[great];
+    				moves += 2;
+    			} else {
+    				m_arr[k] = m_arr[great];
+    				moves++;
+    			}
+    			m_arr[great--] = elm;
+    			moves++;
+    		}
+    	}
+    	
+    	m_arr[low]       = m_arr[less - 1];
+    	m_arr[less - 1]  = p1;
+    	m_arr[high]      = m_arr[great + 1];
+    	m_arr[great + 1] = p2;
+    	
+    	if ( m_stats != null)
+    		m_stats.addMoves(moves + 4);
+    	
+    	return ((long) (less - 1) << 32) | (great + 1);
+    }
+    //////////////////////////////////////////////////////////////////////////////
+    // Insertion sorts the five elements at the indexes i1 < i2 < i3 < i4 < i5.
+    private void sortFive(int i1, int i2, int i3, int i4, int i5){
+    	int[] idxs = { i1, i2, i3, i4, i5};
+    	
+    	for( int i = 1; i < 5; i++) {
+    		T   elm = m_arr[idxs[i]];
+    		int j   = i;
+    		
+    		while ( j > 0 && m_comparator.compare(m_arr[idxs[j - 1]], elm) > 0) {
+    			m_arr[idxs[j]] = m_arr[idxs[j - 1]];
+    			j--;
+    		}
+    		m_arr[idxs[j]] = elm;
+    	}
     }
     ///////////////////////////////////////////////////////////////////////////
-    private int choosePivotIdx(){
+    private int choosePivotIdx(int low, int high){
     	
-    	if ( m_curHigh - m_curLow < 5) // for very small sub arrays we just use m_curLow as the pivot index.
-    		return m_curLow;
+    	if ( high - low < 5) // for very small sub arrays we just use low as the pivot index.
+    		return low;
     	
-    	int mid = (m_curLow + m_curHigh ) / 2;
+    	int mid = (low + high ) / 2;
     	
-    	if ( m_arr[mid].compareTo(m_arr[m_curLow]) * m_arr[m_curLow].compareTo(m_arr[m_curHigh]) >= 0)
-    		return m_curLow;
-    	else if ( m_arr[m_curLow].compareTo(m_arr[mid]) * m_arr[mid].compareTo(m_arr[m_curHigh]) >= 0)
+    	// the comparator may return any int, so we use the signs to avoid the product overflowing.
+    	if ( Integer.signum(m_comparator.compare(m_arr[mid], m_arr[low])) * Integer.signum(m_comparator.compare(m_arr[low], m_arr[high])) >= 0)
+    		return low;
+    	else if ( Integer.signum(m_comparator.compare(m_arr[low], m_arr[mid])) * Integer.signum(m_comparator.compare(m_arr[mid], m_arr[high])) >= 0)
     		return mid;
     	else
-    		return m_curHigh;
+    		return high;
+    }
+    ///////////////////////////////////////////////////////////////////////////
+    // Binary insertion sorts m_arr's elements between low and high inclusive.
+    // As the comparator is the expensive part here, we binary search for where each element goes, 
+    // which takes about log2(N) comparisons rather than N/2, and then shift the bigger elements up into the hole.
+    // Elements equal to the one being inserted stay in front of it, which keeps the sort of small sub-arrays stable.
+    private void insertionSort(int low, int high){
+    	
+    	for( int i = low + 1; i <= high; i++) {
+    		T   elm   = m_arr[i];
+    		int left  = low;
+    		int right = i;   // elm belongs somewhere in [left, right]
+    		
+    		while ( left < right) {
+    			int mid = (left + right) >>> 1;
+    			
+    			if ( m_comparator.compare(elm, m_arr[mid]) < 0)
+    				right = mid;
+    			else
+    				left  = mid + 1;
+    		}
+    		
+    		if ( left < i) {
+    			System.arraycopy(m_arr, left, m_arr, left + 1, i - left);
+    			m_arr[left] = elm;
+    		}
+    	}
+    }
+    ///////////////////////////////////////////////////////////////////////////
+    // An in-place heap sort of m_arr's elements between low and high inclusive.
+    // It is only used once a sub-array has used up its depth budget, and guarantees O(N log(N)).
+    private void heapSort(int low, int high){
+    	int numElms = high - low + 1;
+    	
+    	for( int i = numElms / 2 - 1; i >= 0; i--)
+    		siftDown(low, i, numElms);
+    	
+    	for( int last = numElms - 1; last > 0; last--){
+    		T temp            = m_arr[low];
+    		m_arr[low]        = m_arr[low + last];
+    		m_arr[low + last] = temp;
+    		siftDown(low, 0, last);
+    	}
+    }
+    ///////////////////////////////////////////////////////////////////////////
+    // Restores the max-heap property below node i, in the heap of numElms elements starting at m_arr[low].
+    // As in the partitioning, we move a hole down the heap rather than doing swaps.
+    private void siftDown(int low, int i, int numElms){
+    	T   elm   = m_arr[low + i];
+    	int child;
+    	
+    	while ( (child = 2 * i + 1) < numElms){
+    		
+    		if ( child + 1 < numElms && m_comparator.compare(m_arr[low + child + 1], m_arr[low + child]) > 0)
+    			child++;
+    		
+    		if ( m_comparator.compare(m_arr[low + child], elm) <= 0)
+    			break;
+    		
+    		m_arr[low + i] = m_arr[low + child];
+    		i              = child;
+    	}
+    	m_arr[low + i] = elm;
+    }
+    ///////////////////////////////////////////////////////////////////////////
+    // Sets the default size of sub-array at or below which the sorts stop partitioning and insertion sort instead.
+    // 0 (or 1) turns the insertion sort off. It applies to the sorts that start after it's set, 
+    // on any thread, which each read it once. To use another cutoff for just one sort, 
+    // e.g. as SortBenchmarkSuite's "cutoffs" mode does to time a range of values, pass it to sort(..) instead.
+    public static void setSmallSortCutoff(int numElms){
+    	m_defaultSmallSortCutoff = Math.max(0, numElms);
+    }
+    ///////////////////////////////////////////////////////////////////////////
+    public static int getSmallSortCutoff(){
+    	return m_defaultSmallSortCutoff;
     }
     ///////////////////////////////////////////////////////////////////////////
     private static <S> void reverseArr(S[] arr){
@@ -162,8 +1049,146 @@ public class QSort<T extends Comparable<T>> {
     /////////////////////////////////////////////////////////////////////////////
     // We have a constructor which is private! 
     // It is only called from within the static sort(..) method.
-    private QSort(T[] arr){
-    	m_arr = arr;
+    private QSort(T[] arr, Comparator<? super T> comparator, PartitionScheme scheme){
+    	m_arr             = arr;
+    	m_comparator      = comparator;
+    	m_scheme          = scheme;
+    	m_smallSortCutoff = m_defaultSmallSortCutoff;
+    }
+    /////////////////////////////////////////////////////////////////////////////
+    // Sorts the elements between low and high inclusive.
+    // Each task partitions its own range and then forks a task for each side,
+    // so the only state shared between tasks is m_arr, and the tasks write to disjoint ranges of it.
+    private class ParallelSortTask extends RecursiveAction {
+    	private static final long serialVersionUID = 1L;
+    	
+    	private final int m_low;
+    	private final int m_high;
+    	private final int m_depthBudget;
+    	
+    	ParallelSortTask(int low, int high, int depthBudget){
+    		m_low         = low;
+    		m_high        = high;
+    		m_depthBudget = depthBudget;
+    	}
+    	
+    	protected void compute(){
+    		if ( m_high - m_low < PARALLEL_THRESHOLD || m_depthBudget == 0)
+    			sortSub(m_low, m_high, m_depthBudget);
+    		else {
+    			int available = partition(m_low, m_high);
+    			int runLast   = pivotRunLast(available, m_high);
+    			invokeAll(new ParallelSortTask(m_low,       available - 1, m_depthBudget - 1),
+    					  new ParallelSortTask(runLast + 1, m_high,        m_depthBudget - 1));
+    		}
+    	}
+    }
+    /////////////////////////////////////////////////////////////////////////////
+    // Sorts the arrays of a batch from index 'from' inclusive to 'to' exclusive,
+    // by splitting the range in half until it is no more than grain arrays.
+    private static class BatchSortTask<S extends Comparable<S>> extends RecursiveAction {
+    	private static final long serialVersionUID = 1L;
+    	
+    	private final S[][]   m_arrs;
+    	private final int     m_from;
+    	private final int     m_to;
+    	private final boolean m_ascending;
+    	private final int     m_grain;
+    	
+    	BatchSortTask(S[][] arrs, int from, int to, boolean ascending, int grain){
+    		m_arrs      = arrs;
+    		m_from      = from;
+    		m_to        = to;
+    		m_ascending = ascending;
+    		m_grain     = grain;
+    	}
+    	
+    	protected void compute(){
+    		if ( m_to - m_from <= m_grain)
+    			sortChunk(m_arrs, m_from, m_to, m_ascending);
+    		else {
+    			int mid = (m_from + m_to) >>> 1;
+    			invokeAll(new BatchSortTask<S>(m_arrs, m_from, mid,  m_ascending, m_grain),
+    					  new BatchSortTask<S>(m_arrs, mid,    m_to, m_ascending, m_grain));
+    		}
+    	}
+    }
+    /////////////////////////////////////////////////////////////////////////////
+    // The iterator behind incrementalIterator(..). The elements before m_next have been returned,
+    // and all those before m_settledEnd are in their final places.
+    // m_runs is a stack of the runs of pivots (each pivot along with its equals) that are in their final places further up,
+    // the lowest of them on top. Each entry is 3 ints: the run's start, its exclusive end, and the depth budget left
+    // for the sub-array from its end up to the next run. The top run's start bounds the sub-array still to be sorted below it,
+    // whose budget is m_depthBudget. So the introsort bound carries over from one call of next() to the next,
+    // as it does down the recursion in sort(..), and a run of equal elements is settled by a single partition.
+    private static class IncrementalIterator<S> implements Iterator<S> {
+    	private final QSort<S> m_sorter;
+    	private final S[]      m_arr;
+    	private int[]          m_runs       = new int[3 * 32];
+    	private int            m_numRuns    = 0;
+    	private int            m_next       = 0;
+    	private int            m_settledEnd = 0;
+    	private int            m_depthBudget;
+    	
+    	IncrementalIterator(QSort<S> sorter){
+    		m_sorter      = sorter;
+    		m_arr         = sorter.m_arr;
+    		m_depthBudget = IntroSort.depthBudget(m_arr.length);
+    	}
+    	
+    	public boolean hasNext(){
+    		return m_next < m_arr.length;
+    	}
+    	
+    	public S next(){
+    		
+    		if ( m_next >= m_arr.length)
+    			throw new NoSuchElementException();
+    		
+    		if ( m_next >= m_settledEnd)
+    			settleNext();
+    		
+    		return m_arr[m_next++];
+    	}
+    	
+    	// Partitions the sub-array from m_next up to the lowest run, keeping the low side each time, 
+    	// until m_next is in its final place.
+    	private void settleNext(){
+    		
+    		while ( true) {
+    			int end = ( m_numRuns > 0 ? m_runs[3 * m_numRuns - 3] : m_arr.length);  // exclusive
+    			
+    			if ( end == m_next) {  // m_next starts the lowest run, which is already in place.
+    				m_numRuns--;
+    				m_settledEnd  = m_runs[3 * m_numRuns + 1];
+    				m_depthBudget = m_runs[3 * m_numRuns + 2];
+    				return;
+    			}
+    			
+    			if ( end - m_next <= Math.max(1, m_sorter.m_smallSortCutoff)) {
+    				m_sorter.insertionSort(m_next, end - 1);
+    				m_settledEnd = end;
+    				return;
+    			}
+    			
+    			if ( m_depthBudget-- == 0) {
+    				m_sorter.heapSort(m_next, end - 1);
+    				m_settledEnd = end;
+    				return;
+    			}
+    			
+    			int runStart = m_sorter.holePartitionTiesRight(m_next, end - 1);
+    			int runLast  = m_sorter.gatherPivotEquals(runStart, end - 1);
+    			
+    			if ( m_numRuns == m_runs.length / 3)
+    				m_runs = Arrays.copyOf(m_runs, 2 * m_runs.length);
+    			
+    			m_runs[3 * m_numRuns]     = runStart;
+    			m_runs[3 * m_numRuns + 1] = runLast + 1;
+    			m_runs[3 * m_numRuns + 2] = m_depthBudget;   // the high side gets the same budget as the low side.
+    			m_numRuns++;
+    		}
+    	}
     }
     /////////////////////////////////////////////////////////////////////////////
     private enum Ordering {
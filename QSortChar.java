@@ -0,0 +1,194 @@
+import java.util.Arrays;
+
+// A primitive char version of the sorting algorithm in QSortDouble, 
+// see there (and the README) for a description of how the partitioning works.
+// As with the double version, when sorting chars it only requires one extra temp char to be stored,
+// and no char values need to be boxed.
+// A range of at least COUNTING_SORT_THRESHOLD elements is counting sorted instead, see countingSort(..).
+public class QSortChar {
+	private char[] m_arr;
+
+	// Ranges of at least this many elements are counting sorted, as the count array's 65536 entries cost less than q-sorting them.
+	private static final int COUNTING_SORT_THRESHOLD = 1750;
+	    
+    // The elements of arr will be rearranged.
+    public static void sort(char[] arr, boolean ascending){
+    	
+    	if ( arr == null)
+    		return; // possibly could give a warning.
+    	
+    	sort(arr, 0, arr.length, ascending);
+    }
+    ///////////////////////////////////////////////////////////////////////////
+    // Sorts the elements of arr from index 'from' inclusive to 'to' exclusive,
+    // the elements outside that range are left untouched.
+    public static void sort(char[] arr, int from, int to, boolean ascending){
+    	
+    	if ( arr == null)
+    		return; // possibly could give a warning.
+    	
+    	SortRange.check(arr.length, from, to);
+    	
+    	if ( to - from >= COUNTING_SORT_THRESHOLD) {
+    		countingSort(arr, from, to, ascending);
+    		return;
+    	}
+    	
+        QSortChar sorter = new QSortChar(arr);
+        sorter.sortSub(from, to, IntroSort.depthBudget(to - from));
+                
+        if ( !ascending)
+        	reverseArr( arr, from, to);        
+    }
+    ///////////////////////////////////////////////////////////////////////////
+    // With only 65536 possible values, a sizeable range is mostly duplicates, which the q-sort handles badly,
+    // as each partition only settles its pivot, leaving the equal elements for the heap sort fallback.
+    // So instead we count how many there are of each value, and write the values back out in order,
+    // which is two passes over the range whatever the input, as in the JDK's Arrays.sort(..).
+    private static void countingSort(char[] arr, int from, int to, boolean ascending){
+    	int[] counts = new int[65536];
+    	int   idx    = from;
+    	
+    	for( int i = from; i < to; i++)
+    		counts[arr[i]]++;
+    	
+    	for( int c = 0; c < counts.length; c++) {
+    		int value = ( ascending ? c : counts.length - 1 - c);
+    		int count = counts[value];
+    		
+    		if ( count > 0) {
+    			Arrays.fill(arr, idx, idx + count, (char) value);
+    			idx += count;
+    		}
+    	}
+    }
+    ///////////////////////////////////////////////////////////////////////////
+    public static void reverseArr(char[] arr){
+    	reverseArr(arr, 0, arr.length);
+    }
+    ///////////////////////////////////////////////////////////////////////////
+    // reverses the elements from index 'from' inclusive to 'to' exclusive.
+    private static void reverseArr(char[] arr, int from, int to){
+    	
+    	int halfN      = (to - from) / 2;
+    	int toMinusOne = to - 1;
+    	
+    	for( int i = 0; i < halfN; i++ ) {
+    		
+    		char temp     = arr[from + i];
+    		int  j        = toMinusOne - i;
+    		
+    		arr[from + i] = arr[j];
+    		arr[j]        = temp;
+    	}    		
+    }
+    /////////////////////////////////////////////////////////////////////////////
+    // We have a constructor which is private! 
+    // It is only called from within the static sort(..) method.
+    private QSortChar(char[] arr){
+    	m_arr = arr;
+    }
+    //////////////////////////////////////////////////////////////////////////////
+    // will sort m_arr's elements between low inclusive and high exclusive.
+    // depthBudget is the number of further partitioning levels allowed before we fall back to heap sort.
+    private void sortSub(int low, int high, int depthBudget){    
+       int available;
+    	
+       while ( high > (low + 1)) { // when there are 0 or 1 elements, there is nothing to be done.
+    	   
+    	   if ( depthBudget-- == 0) {
+    		   heapSort(low, high);
+    		   return;
+    	   }
+
+    	   available = partition(low, high);
+       
+    	   // We only recurse into the smaller side and loop round to sort the larger side,
+    	   // so the stack never gets more than log2(N) calls deep.
+    	   if ( available - low < high - available) {
+    		   sortSub(low, available, depthBudget);
+    		   low  = available + 1;
+    	   } else {
+    		   sortSub(available + 1, high, depthBudget);
+    		   high = available;
+    	   }
+       }
+    }
+    //////////////////////////////////////////////////////////////////////////////
+    // Partitions m_arr's elements between low inclusive and high exclusive (at least 2 elements),
+    // and returns the index at which the pivot ends up.
+    private int partition(int low, int high){
+	   int     pivotIdx       = idxOfMedianOfThree( low, (low + high)/2, high - 1 );    	   
+	   char    pivot          = m_arr[pivotIdx];
+	   int     available      = low;	   
+       boolean workingFromLow = false;
+       int     lowIdx         = low;
+       int     highIdx        = high;
+	   
+	   if ( pivotIdx != low)
+		    m_arr[pivotIdx] = m_arr[low];
+
+       while ( lowIdx  < highIdx){
+    	   
+           if (workingFromLow && (m_arr[++lowIdx] > pivot)){
+	           m_arr[available]  = m_arr[lowIdx];
+	           available         = lowIdx;
+	           workingFromLow    = false;
+
+           } else if ((!workingFromLow) && (pivot > m_arr[--highIdx])){
+	           m_arr[available]  = m_arr[highIdx];
+	           available         = highIdx;
+	           workingFromLow    = true;   		           
+           }
+        }  // end of while  
+        m_arr[available] = pivot;  // the pivot is now in the correct position. 
+        
+        return available;
+    }
+    ///////////////////////////////////////////////////////////////////////////
+    // An in-place heap sort of m_arr's elements between low inclusive and high exclusive.
+    // It is only used once a sub-array has used up its depth budget, and guarantees O(N log(N)).
+    private void heapSort(int low, int high){
+    	int numElms = high - low;
+    	
+    	for( int i = numElms / 2 - 1; i >= 0; i--)
+    		siftDown(low, i, numElms);
+    	
+    	for( int last = numElms - 1; last > 0; last--){
+    		char temp         = m_arr[low];
+    		m_arr[low]        = m_arr[low + last];
+    		m_arr[low + last] = temp;
+    		siftDown(low, 0, last);
+    	}
+    }
+    ///////////////////////////////////////////////////////////////////////////
+    // Restores the max-heap property below node i, in the heap of numElms elements starting at m_arr[low].
+    // As in the partitioning, we move a hole down the heap rather than doing swaps.
+    private void siftDown(int low, int i, int numElms){
+    	char elm   = m_arr[low + i];
+    	int  child;
+    	
+    	while ( (child = 2 * i + 1) < numElms){
+    		
+    		if ( child + 1 < numElms && m_arr[low + child + 1] > m_arr[low + child])
+    			child++;
+    		
+    		if ( !(m_arr[low + child] > elm))
+    			break;
+    		
+    		m_arr[low + i] = m_arr[low + child];
+    		i              = child;
+    	}
+    	m_arr[low + i] = elm;
+    }
+    ///////////////////////////////////////////////////////////////////////////
+    private int idxOfMedianOfThree( int i1, int i2, int i3){
+    	if ( (m_arr[i2] > m_arr[i1]) == (m_arr[i1] > m_arr[i3]))
+    		return i1;
+    	else if ( (m_arr[i1] > m_arr[i2]) == (m_arr[i2] > m_arr[i3]))
+    		return i2;
+    	else
+    		return i3;
+    }
+    //////////////////////////////////////////////////////////////////////////////////
+}
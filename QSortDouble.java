@@ -1,3 +1,15 @@
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
 // In the following class we have a sorting algorithm which was based on the q-sort algorithm.
 // It is rather memory efficient in that when sorting say doubles,
 // it only requires one extra temp double to be stored.
@@ -14,86 +26,1066 @@
 
 // Author: Philip Kinlen.
 public class QSortDouble {
-	private double[] m_arr;
-	private double   m_pivot;
-    private int      m_initialPivotIdx;
-	private int      m_lowIdx;
-	private int      m_highIdx;
-	private boolean  m_workingFromLow;
+	private double[]        m_arr;
+	private PartitionScheme m_scheme;
+	private int             m_smallSortCutoff;   // see m_defaultSmallSortCutoff.
+	private SortStats       m_stats;   // null unless this sort is being instrumented, see SortInstrumentation.
+	
+	// Sub-arrays with at most this many elements are sorted on the calling thread
+	// when using parallelSort(..), rather than being split into further fork/join tasks.
+	private static final int PARALLEL_THRESHOLD = 8192;
+	
+	// The kernel for PartitionScheme.SIMD, or null when it can't be used, see loadSimdKernel().
+	private static final DoublePartitionKernel SIMD_KERNEL = loadSimdKernel();
+	
+	// Sub-arrays with fewer elements than this are partitioned with the scalar partition, even in SIMD mode.
+	private static final int SIMD_MIN_ELMS = 64;
+	
+	// Sub-arrays with fewer elements than this are insertion sorted in DUAL_PIVOT mode,
+	// the five element pivot sample needs some room around it.
+	static final int DUAL_PIVOT_MIN_ELMS = 32;
+	
+	// Sub-arrays of at most this many elements are insertion sorted, rather than being partitioned 
+	// all the way down to single elements. Each sorter copies it into m_smallSortCutoff when it's made,
+	// unless the sort call passes in a cutoff of its own, so a sort never sees it change part way through.
+	// See setSmallSortCutoff(..).
+	private static volatile int m_defaultSmallSortCutoff = 16;
+	
+	// Each thread's sorter for sortAll(..), which is reused for every array the thread sorts.
+	private static final ThreadLocal<QSortDouble> m_batchSorter = 
+			ThreadLocal.withInitial(() -> new QSortDouble(null, PartitionScheme.SINGLE_PIVOT));
 	    
     // The following sorting algorithm is based on q-sort.
     // It tries to minimise the amount of runtime memory usage
 	// The elements of arr will be rearranged.
+    // The ordering is the same total order as Double.compare(..), i.e. -0.0 comes before 0.0
+    // and NaNs come after everything else (or before everything else when descending).
     public static void sort(double[] arr, boolean ascending){
     	
     	if ( arr == null)
     		return; // possibly could give a warning.
     	
-        QSortDouble sorter = new QSortDouble(arr);
-        sorter.sortSub(0, arr.length);
+    	sort(arr, 0, arr.length, ascending, PartitionScheme.SINGLE_PIVOT);
+    }
+    ///////////////////////////////////////////////////////////////////////////
+    public static void sort(double[] arr, boolean ascending, PartitionScheme scheme){
+    	
+    	if ( arr == null)
+    		return; // possibly could give a warning.
+    	
+    	sort(arr, 0, arr.length, ascending, scheme);
+    }
+    ///////////////////////////////////////////////////////////////////////////
+    // As sort(arr, ascending, scheme), but insertion sorting sub-arrays of at most smallSortCutoff elements,
+    // just for this sort, rather than the default set by setSmallSortCutoff(..).
+    public static void sort(double[] arr, boolean ascending, PartitionScheme scheme, int smallSortCutoff){
+    	
+    	if ( arr == null)
+    		return; // possibly could give a warning.
+    	
+        QSortDouble sorter = new QSortDouble(arr, scheme);
+        
+        sorter.m_smallSortCutoff = Math.max(0, smallSortCutoff);
+        sorter.sortRange(0, arr.length, ascending);
+    }
+    ///////////////////////////////////////////////////////////////////////////
+    // Sorts the elements of arr from index 'from' inclusive to 'to' exclusive,
+    // the elements outside that range are left untouched.
+    public static void sort(double[] arr, int from, int to, boolean ascending){
+    	sort(arr, from, to, ascending, PartitionScheme.SINGLE_PIVOT);
+    }
+    ///////////////////////////////////////////////////////////////////////////
+    public static void sort(double[] arr, int from, int to, boolean ascending, PartitionScheme scheme){
+    	
+    	if ( arr == null)
+    		return; // possibly could give a warning.
+    	
+    	SortRange.check(arr.length, from, to);
+    	
+        new QSortDouble(arr, scheme).sortRange(from, to, ascending);
+    }
+    ///////////////////////////////////////////////////////////////////////////
+    // Sets the default size of sub-array at or below which the sorts stop partitioning and insertion sort instead.
+    // 0 (or 1) turns the insertion sort off. It applies to the sorts that start after it's set, 
+    // on any thread, which each read it once. To use another cutoff for just one sort, 
+    // e.g. as SortBenchmarkSuite's "cutoffs" mode does to time a range of values, pass it to sort(..) instead.
+    public static void setSmallSortCutoff(int numElms){
+    	m_defaultSmallSortCutoff = Math.max(0, numElms);
+    }
+    ///////////////////////////////////////////////////////////////////////////
+    public static int getSmallSortCutoff(){
+    	return m_defaultSmallSortCutoff;
+    }
+    ///////////////////////////////////////////////////////////////////////////
+    // As sort(..), but first looks for the natural ascending and descending runs in arr.
+    // The descending runs are reversed and then the runs are merged in place, 
+    // so an array which is already nearly sorted costs close to O(N).
+    // If there turn out to be too many runs for that to pay off, we just q-sort the array.
+    public static void adaptiveSort(double[] arr, boolean ascending){
+    	
+    	if ( arr == null)
+    		return; // possibly could give a warning.
+    	
+        QSortDouble sorter   = new QSortDouble(arr, PartitionScheme.SINGLE_PIVOT);
+        int         end      = sorter.moveNaNsToEnd(0, arr.length);
+        int         negZeros = sorter.replaceNegativeZeros(0, end);
+        
+        sorter.adaptiveSortSub(0, end);
+        sorter.restoreNegativeZeros(0, end, negZeros);
                 
         if ( !ascending)
         	reverseArr( arr);        
     }
     ///////////////////////////////////////////////////////////////////////////
+    // As sort(..) above, but once a sub-array has been partitioned, the two sides are
+    // sorted in parallel fork/join tasks on the common pool.
+    public static void parallelSort(double[] arr, boolean ascending){
+    	parallelSort(arr, ascending, PartitionScheme.SINGLE_PIVOT);
+    }
+    ///////////////////////////////////////////////////////////////////////////
+    public static void parallelSort(double[] arr, boolean ascending, PartitionScheme scheme){
+    	
+    	if ( arr == null)
+    		return; // possibly could give a warning.
+    	
+        QSortDouble sorter   = new QSortDouble(arr, scheme);
+        int         end      = sorter.moveNaNsToEnd(0, arr.length);
+        int         negZeros = sorter.replaceNegativeZeros(0, end);
+        
+        ForkJoinPool.commonPool().invoke(sorter.new ParallelSortTask(0, end, IntroSort.depthBudget(end)));
+        sorter.restoreNegativeZeros(0, end, negZeros);
+                
+        if ( !ascending)
+        	reverseArr( arr);        
+    }
+    ///////////////////////////////////////////////////////////////////////////
+    // Sorts each of the arrays (as sort(arr, ascending) would), spreading the arrays over the common fork/join pool.
+    // This is for a batch of many small arrays, which are each too small for parallelSort(..) to help with.
+    // Each thread reuses its own sorter, so once warmed up the only allocations are 
+    // the few fork/join tasks per batch, none per array.
+    public static void sortAll(List<double[]> arrs, boolean ascending){
+    	
+    	if ( arrs == null)
+    		return; // possibly could give a warning.
+    	
+    	ForkJoinPool.commonPool().invoke(new BatchSortTask(arrs, 0, arrs.size(), ascending, batchGrain(arrs.size())));
+    }
+    ///////////////////////////////////////////////////////////////////////////
+    // As sortAll(..), but returns straight away, with a future that completes once all of the arrays are sorted.
+    public static CompletableFuture<Void> sortAllAsync(List<double[]> arrs, boolean ascending){
+    	return sortAllAsync(arrs, ascending, ForkJoinPool.commonPool());
+    }
+    ///////////////////////////////////////////////////////////////////////////
+    // The arrays are split into contiguous chunks, each of which is one task for executor,
+    // e.g. a pool of the request threads, or an executor of virtual threads on Java versions that have them.
+    public static CompletableFuture<Void> sortAllAsync(List<double[]> arrs, boolean ascending, Executor executor){
+    	
+    	if ( arrs == null)
+    		return CompletableFuture.completedFuture(null);
+    	
+    	int                    grain  = batchGrain(arrs.size());
+    	CompletableFuture<?>[] chunks = new CompletableFuture<?>[(arrs.size() + grain - 1) / grain];
+    	
+    	for( int c = 0; c < chunks.length; c++) {
+    		final int from = c * grain;
+    		final int to   = Math.min(from + grain, arrs.size());
+    		
+    		chunks[c] = CompletableFuture.runAsync(() -> sortChunk(arrs, from, to, ascending), executor);
+    	}
+    	return CompletableFuture.allOf(chunks);
+    }
+    ///////////////////////////////////////////////////////////////////////////
+    // The number of arrays to sort in one task, so that there are a few tasks per core to balance the load.
+    static int batchGrain(int numArrs){
+    	int numTasks = 4 * ForkJoinPool.getCommonPoolParallelism();
+    	
+    	return Math.max(1, (numArrs + numTasks - 1) / numTasks);
+    }
+    ///////////////////////////////////////////////////////////////////////////
+    // Sorts arrs from index 'from' inclusive to 'to' exclusive, with this thread's reusable sorter.
+    private static void sortChunk(List<double[]> arrs, int from, int to, boolean ascending){
+    	QSortDouble sorter = m_batchSorter.get();
+    	
+    	sorter.m_smallSortCutoff = m_defaultSmallSortCutoff;   // the sorter outlives the sorts, so it needs bringing up to date.
+    	
+    	for( int i = from; i < to; i++) {
+    		double[] arr = arrs.get(i);
+    		
+    		if ( arr == null)
+    			continue;
+    		
+    		sorter.m_arr = arr;
+    		sorter.sortRange(0, arr.length, ascending);
+    	}
+    	sorter.m_arr = null;  // so that we don't hold on to the caller's array.
+    }
+    ///////////////////////////////////////////////////////////////////////////
+    // Returns the permutation that would sort arr, i.e. arr[result[0]] is the first element in sorted order.
+    // arr itself is left untouched. The order is the same as sort(..) gives.
+    public static int[] argSort(double[] arr, boolean ascending){
+    	
+    	if ( arr == null)
+    		return null;
+    	
+    	int[] order = new int[arr.length];
+    	
+    	for( int i = 0; i < order.length; i++)
+    		order[i] = i;
+    	
+    	DoubleCoSorter.sort(arr.clone(), 0, arr.length, ascending, CoSortPayload.of(order));
+    	return order;
+    }
+    ///////////////////////////////////////////////////////////////////////////
+    // Sorts keys, and rearranges payload in lockstep, so that payload[i] stays with keys[i].
+    // This lets columnar data be sorted without building an object per row.
+    public static void coSort(double[] keys, boolean ascending, int[] payload){
+    	coSort(keys, ascending, CoSortPayload.of(payload));
+    }
+    ///////////////////////////////////////////////////////////////////////////
+    public static void coSort(double[] keys, boolean ascending, long[] payload){
+    	coSort(keys, ascending, CoSortPayload.of(payload));
+    }
+    ///////////////////////////////////////////////////////////////////////////
+    // For several payload arrays use CoSortPayload.of(payload1, payload2, ..)
+    public static void coSort(double[] keys, boolean ascending, CoSortPayload payload){
+    	
+    	if ( keys == null)
+    		return; // possibly could give a warning.
+    	
+    	if ( payload.length() != keys.length)
+    		throw new IllegalArgumentException("The payload has " + payload.length() + " elements, but there are " + keys.length + " keys");
+    	
+    	DoubleCoSorter.sort(keys, 0, keys.length, ascending, payload);
+    }
+    ///////////////////////////////////////////////////////////////////////////
+    // Rearranges arr so that arr[k] is the element that sort(arr, true) would put there,
+    // with the elements before it all <= arr[k] and those after it all >= arr[k]. Returns arr[k].
+    // Like sort(..) it partitions, but it only carries on into the side containing k, 
+    // so the expected cost is O(N) rather than O(N log(N)). A null arr gives NaN.
+    public static double select(double[] arr, int k){
+    	
+    	if ( arr == null)
+    		return Double.NaN; // possibly could give a warning.
+    	
+    	if ( k < 0 || k >= arr.length)
+    		throw new ArrayIndexOutOfBoundsException(k);
+    	
+        QSortDouble sorter   = new QSortDouble(arr, PartitionScheme.SINGLE_PIVOT);
+        int         end      = sorter.moveNaNsToEnd(0, arr.length);
+        int         negZeros = sorter.replaceNegativeZeros(0, end);
+        
+        if ( k < end)
+        	sorter.selectSub(0, end, k, IntroSort.depthBudget(end));
+        
+        sorter.restoreNegativeZerosInOrder(0, end, negZeros);
+        return arr[k];
+    }
+    ///////////////////////////////////////////////////////////////////////////
+    // Puts the k smallest elements, in ascending order, into arr[0] to arr[k-1].
+    // The order of the remaining elements is unspecified.
+    public static void partialSort(double[] arr, int k){
+    	
+    	if ( arr == null)
+    		return; // possibly could give a warning.
+    	
+    	if ( k < 0 || k > arr.length)
+    		throw new ArrayIndexOutOfBoundsException(k);
+    	
+        QSortDouble sorter   = new QSortDouble(arr, PartitionScheme.SINGLE_PIVOT);
+        int         end      = sorter.moveNaNsToEnd(0, arr.length);
+        int         negZeros = sorter.replaceNegativeZeros(0, end);
+        
+        if ( k < end)
+        	sorter.selectSub(0, end, k, IntroSort.depthBudget(end));
+        
+        int sortEnd = Math.min(k, end);
+        sorter.sortSub(0, sortEnd, IntroSort.depthBudget(sortEnd));
+        sorter.restoreNegativeZerosInOrder(0, end, negZeros);
+    }
+    ///////////////////////////////////////////////////////////////////////////
+    // Returns the k largest elements of arr, largest first, leaving arr untouched.
+    // It keeps a min-heap of the best k seen so far, so it needs only O(k) memory and O(N log(k)) time,
+    // which suits e.g. the top 100 out of 50 million.
+    public static double[] topK(double[] arr, int k){
+    	
+    	if ( arr == null)
+    		return null;
+    	
+    	if ( k < 0)
+    		throw new IllegalArgumentException("k must not be negative: " + k);
+    	
+    	double[] heap = new double[Math.min(k, arr.length)];
+    	int      size = 0;
+    	
+    	for( double elm : arr) {
+    		if ( size < heap.length) {           // still filling the heap, sift the new element up
+    			int i = size++;
+    			
+    			while ( i > 0 && Double.compare(heap[(i - 1) / 2], elm) > 0) {
+    				heap[i] = heap[(i - 1) / 2];
+    				i       = (i - 1) / 2;
+    			}
+    			heap[i] = elm;
+    			
+    		} else if ( size > 0 && Double.compare(elm, heap[0]) > 0) {  // replace the smallest of the best k
+    			int i = 0;
+    			int child;
+    			
+    			while ( (child = 2 * i + 1) < size) {
+    				if ( child + 1 < size && Double.compare(heap[child + 1], heap[child]) < 0)
+    					child++;
+    				
+    				if ( Double.compare(heap[child], elm) >= 0)
+    					break;
+    				
+    				heap[i] = heap[child];
+    				i       = child;
+    			}
+    			heap[i] = elm;
+    		}
+    	}
+    	sort(heap, false);
+    	return heap;
+    }
+    ///////////////////////////////////////////////////////////////////////////
+    // Returns an iterator over arr's elements in sorted order, which only sorts as far as it has been read,
+    // so reading the first m of N elements costs about O(N + m log(m)), see QSort.incrementalIterator(..).
+    // arr is rearranged as we go. Ascending, the elements returned so far are at its start, in order,
+    // with the rest after them in an unspecified order. Descending works down from the end of arr instead,
+    // so the elements returned so far are at its end, in ascending order.
+    // The NaNs are moved to the end of arr when the iterator is made. arr mustn't be changed by anything else while iterating.
+    public static PrimitiveIterator.OfDouble incrementalIterator(double[] arr, boolean ascending){
+    	
+    	if ( arr == null)
+    		arr = new double[0]; // possibly could give a warning.
+    	
+    	return new IncrementalIterator(new QSortDouble(arr, PartitionScheme.SINGLE_PIVOT), ascending);
+    }
+    ///////////////////////////////////////////////////////////////////////////
+    // incrementalIterator(..) as a Spliterator, e.g. for StreamSupport.doubleStream(..).
+    // It can only split by taking a batch of the sorted elements off the front, so its streams are best left sequential.
+    public static Spliterator.OfDouble incrementalSpliterator(double[] arr, boolean ascending){
+    	
+    	if ( arr == null)
+    		return Spliterators.emptyDoubleSpliterator(); // possibly could give a warning.
+    	
+    	return Spliterators.spliterator(incrementalIterator(arr, ascending), arr.length, Spliterator.ORDERED);
+    }
+    ///////////////////////////////////////////////////////////////////////////
+    // Returns a new array of sortedArr's elements, which must already be in order (as sort(sortedArr, ascending) leaves them),
+    // and delta's elements, all in order. Only delta is sorted, and it's then merged in, see DeltaMerger,
+    // so for a small delta this is much cheaper than sorting everything again. sortedArr and delta are left untouched.
+    public static double[] mergeSortedDelta(double[] sortedArr, double[] delta, boolean ascending){
+
+    	if ( sortedArr == null || delta == null)
+    		return sortedArr; // possibly could give a warning.
+
+    	return DeltaMerger.merge(sortedArr, delta, ascending);
+    }
+    ///////////////////////////////////////////////////////////////////////////
+    // The in-place version of the above, for an array with spare room at its end that the delta is appended into.
+    // arr[0] to arr[sortedLen-1] must already be in order, and arr[sortedLen] to arr[len-1] are the new elements.
+    // The elements whose indexes are set in removed are dropped (removed may be null, and isn't changed).
+    // Afterwards the remaining elements are in order at the start of arr, and the number of them is returned.
+    // The elements after them are left unspecified.
+    public static int mergeSortedDelta(double[] arr, int sortedLen, int len, boolean ascending, BitSet removed){
+
+    	if ( arr == null)
+    		return 0; // possibly could give a warning.
+
+    	SortRange.check(arr.length, 0, len);
+    	SortRange.check(len, 0, sortedLen);
+
+    	return DeltaMerger.merge(arr, sortedLen, len, ascending, removed);
+    }
+    ///////////////////////////////////////////////////////////////////////////
     public static void reverseArr(double[] arr){
+    	reverseArr(arr, 0, arr.length);
+    }
+    ///////////////////////////////////////////////////////////////////////////
+    // reverses the elements from index 'from' inclusive to 'to' exclusive.
+    private static void reverseArr(double[] arr, int from, int to){
     	
-    	int halfN     = arr.length / 2;
-    	int NminusOne = arr.length - 1;
+    	int halfN     = (to - from) / 2;
+    	int toMinusOne = to - 1;
     	
     	for( int i = 0; i < halfN; i++ ) {
     		
-    		double temp   = arr[i];
-    		int    j      = NminusOne - i;
+    		double temp   = arr[from + i];
+    		int    j      = toMinusOne - i;
     		
-    		arr[i]        = arr[j];
+    		arr[from + i] = arr[j];
     		arr[j]        = temp;
     	}    		
     }
+    ///////////////////////////////////////////////////////////////////////////
+    // The partitioning below uses the primitive '>' operator, for which NaN is unordered 
+    // and -0.0 equals 0.0. So before sorting we move the NaNs to the end of the range,
+    // and return the (exclusive) end of the remaining non-NaN elements.
+    private int moveNaNsToEnd(int from, int to){
+    	int end = to;
+    	
+    	for( int i = to - 1; i >= from; i--){
+    		if ( Double.isNaN(m_arr[i])) {
+    			double temp    = m_arr[i];
+    			m_arr[i]       = m_arr[--end];
+    			m_arr[end]     = temp;
+    		}
+    	}
+    	return end;
+    }
+    ///////////////////////////////////////////////////////////////////////////
+    // Replaces each -0.0 with 0.0, and returns how many were replaced.
+    private int replaceNegativeZeros(int from, int to){
+    	int count = 0;
+    	
+    	for( int i = from; i < to; i++){
+    		if ( m_arr[i] == 0.0 && Double.doubleToRawLongBits(m_arr[i]) != 0L) {
+    			m_arr[i] = 0.0;
+    			count++;
+    		}
+    	}
+    	return count;
+    }
+    ///////////////////////////////////////////////////////////////////////////
+    // Once the range is sorted, the zeros are all together, 
+    // so we write the -0.0s back over the first 'count' of them.
+    private void restoreNegativeZeros(int from, int to, int count){
+    	
+    	if ( count == 0)
+    		return;
+    	
+    	int low  = from;   // find the index of the first element that is not negative
+    	int high = to;
+    	
+    	while ( low < high){
+    		int mid = (low + high) >>> 1;
+    		
+    		if ( m_arr[mid] < 0.0)
+    			low  = mid + 1;
+    		else
+    			high = mid;
+    	}
+    	
+    	for( int i = 0; i < count; i++)
+    		m_arr[low + i] = -0.0;
+    }
+    ///////////////////////////////////////////////////////////////////////////
+    // As restoreNegativeZeros(..), but for when the range has only been partly sorted by select(..).
+    // Writing the -0.0s over the first zeros by index still leaves every element before k <= arr[k] <= every element after.
+    private void restoreNegativeZerosInOrder(int from, int to, int count){
+    	
+    	for( int i = from; i < to && count > 0; i++){
+    		if ( m_arr[i] == 0.0) {
+    			m_arr[i] = -0.0;
+    			count--;
+    		}
+    	}
+    }
     /////////////////////////////////////////////////////////////////////////////
     // We have a constructor which is private! 
     // It is only called from within the static sort(..) method.
-    private QSortDouble(double[] arr){
-    	m_arr = arr;
+    private QSortDouble(double[] arr, PartitionScheme scheme){
+    	m_arr             = arr;
+    	m_scheme          = scheme;
+    	m_smallSortCutoff = m_defaultSmallSortCutoff;
+    }
+    //////////////////////////////////////////////////////////////////////////////
+    // The body of sort(..): sorts m_arr's elements from index 'from' inclusive to 'to' exclusive.
+    private void sortRange(int from, int to, boolean ascending){
+        SortStats   stats    = SortInstrumentation.start("QSortDouble", to - from);
+        int         end      = moveNaNsToEnd(from, to);
+        int         negZeros = replaceNegativeZeros(from, end);
+        int         budget   = IntroSort.depthBudget(end - from);
+        
+        if ( stats != null)
+        	stats.setDepthBudget(budget);
+        
+        m_stats = stats;
+        sortSub(from, end, budget);
+        restoreNegativeZeros(from, end, negZeros);
+                
+        if ( !ascending)
+        	reverseArr( m_arr, from, to);
+        
+        SortInstrumentation.finish(stats);
+        m_stats = null;
     }
     //////////////////////////////////////////////////////////////////////////////
     // will sort m_arr's elements between low inclusive and high exclusive.
-    private void sortSub(int low, int high){    
+    // depthBudget is the number of further partitioning levels allowed before we fall back to heap sort.
+    private void sortSub(int low, int high, int depthBudget){    
        int available;
+       int runEnd;    // the exclusive end of the elements that are now in their final place, from available.
     	
-       if ( high <= (low + 1)) // when there are 0 or 1 elements, there is nothing to be done.
-          return;
-       else { // we use this else branch to ensure that as many temporary variables as possible
-    	      // are removed from the stack before the recursive call sortSub(..) below.
-		   m_initialPivotIdx = idxOfMedianOfThree( low, (low + high)/2, high - 1 );    	   
-		   m_pivot           = m_arr[m_initialPivotIdx];
-		   
-		   if ( m_initialPivotIdx != low)
-			    m_arr[m_initialPivotIdx] = m_arr[low];
-		   	    	
-		   available         = low;	   
-	       m_workingFromLow  = false;
-	       m_lowIdx          = low;
-	       m_highIdx         = high;
-	
-	       while ( m_lowIdx  < m_highIdx){
-	    	   
-	           if (m_workingFromLow && (m_arr[++m_lowIdx] > m_pivot)){
-		           m_arr[available]  = m_arr[m_lowIdx];
-		           available         = m_lowIdx;
-		           m_workingFromLow  = false;
-	
-	           } else if ((!m_workingFromLow) && (m_pivot > m_arr[--m_highIdx])){
-		           m_arr[available]  = m_arr[m_highIdx];
-		           available         = m_highIdx;
-		           m_workingFromLow  = true;   		           
-	           }
-	        }  // end of while  
-	        m_arr[available] = m_pivot;  // the pivot is now in the correct position. 
-       } 
-       // now we have a recursive call, to sort the sub-arrays
-       sortSub(low, available);  
-       sortSub(available + 1, high);
+       if ( m_scheme == PartitionScheme.DUAL_PIVOT) {
+    	   dualPivotSortSub(low, high, depthBudget);
+    	   return;
+       }
+       
+       while ( high > (low + 1)) { // when there are 0 or 1 elements, there is nothing to be done.
+    	   
+    	   if ( high - low <= m_smallSortCutoff) {
+    		   insertionSort(low, high);
+    		   return;
+    	   }
+    	   
+    	   if ( depthBudget-- == 0) {
+    		   if ( m_stats != null)
+    			   m_stats.heapSorted();
+    		   
+    		   heapSort(low, high);
+    		   return;
+    	   }
+
+    	   available = partition(low, high);
+    	   runEnd    = pivotRunEnd(available, high);
+    	   
+    	   if ( m_stats != null)
+    		   recordPartition(low, high, available, runEnd, depthBudget);
+       
+    	   // We only recurse into the smaller side and loop round to sort the larger side,
+    	   // so the stack never gets more than log2(N) calls deep.
+    	   if ( available - low < high - runEnd) {
+    		   sortSub(low, available, depthBudget);
+    		   low  = runEnd;
+    	   } else {
+    		   sortSub(runEnd, high, depthBudget);
+    		   high = available;
+    	   }
+       }
+    }
+    //////////////////////////////////////////////////////////////////////////////
+    // As sortSub(..), but partitioning around two pivots, p1 <= p2, into three sub-arrays:
+    // the elements < p1, those from p1 to p2, and those > p2.
+    // We recurse into the two smaller ones and loop round to sort the largest,
+    // so again the stack never gets more than log2(N) calls deep.
+    private void dualPivotSortSub(int low, int high, int depthBudget){
+    	
+    	while ( high > (low + 1)) {
+    		
+    		if ( high - low <= m_smallSortCutoff || high - low < DUAL_PIVOT_MIN_ELMS) {
+    			insertionSort(low, high);
+    			return;
+    		}
+    		
+    		if ( depthBudget-- == 0) {
+    			if ( m_stats != null)
+    				m_stats.heapSorted();
+    			
+    			heapSort(low, high);
+    			return;
+    		}
+    		
+    		long   pivotIdxs = dualPivotPartition(low, high);
+    		int    p1Idx     = (int) (pivotIdxs >>> 32);
+    		int    p2Idx     = (int) pivotIdxs;
+    		int    midLow    = p1Idx + 1;
+    		int    midHigh   = p2Idx;
+    		
+    		if ( m_arr[p1Idx] == m_arr[p2Idx])  // then everything between the pivots is equal to them, and already in place.
+    			midHigh = midLow;
+    		
+    		if ( m_stats != null)
+    			recordDualPivotPartition(low, high, p1Idx, p2Idx, midHigh - midLow, depthBudget);
+    		
+    		int lowSize  = p1Idx - low;
+    		int midSize  = midHigh - midLow;
+    		int highSize = high - p2Idx - 1;
+    		
+    		if ( lowSize >= midSize && lowSize >= highSize) {
+    			sortSub(midLow, midHigh, depthBudget);
+    			sortSub(p2Idx + 1, high, depthBudget);
+    			high = p1Idx;
+    		} else if ( midSize >= highSize) {
+    			sortSub(low, p1Idx, depthBudget);
+    			sortSub(p2Idx + 1, high, depthBudget);
+    			low  = midLow;
+    			high = midHigh;
+    		} else {
+    			sortSub(low, p1Idx, depthBudget);
+    			sortSub(midLow, midHigh, depthBudget);
+    			low  = p2Idx + 1;
+    		}
+    	}
+    }
+    //////////////////////////////////////////////////////////////////////////////
+    // Only called when instrumenting. The partition scans make exactly one comparison per element 
+    // they pass over, so rather than counting in the inner loops we work the comparisons out here.
+    private void recordPartition(int low, int high, int available, int runEnd, int depthBudget){
+    	long comparisons = high - low;
+    	
+    	if ( m_scheme == PartitionScheme.THREE_WAY)
+    		comparisons += high - available - 1;   // gatherPivotEquals(..) compares each element above the pivot.
+    	
+    	m_stats.addComparisons(comparisons);
+    	m_stats.partitioned(high - low, Math.min(available - low, high - runEnd), depthBudget);
+    }
+    //////////////////////////////////////////////////////////////////////////////
+    // As recordPartition(..), for a dual pivot partition. Every element is compared with p1, 
+    // and those that aren't below it with p2 as well, which we count as if each of those was one comparison more,
+    // so it's a close estimate rather than exact. The smaller side is the smallest of the three sub-arrays.
+    private void recordDualPivotPartition(int low, int high, int p1Idx, int p2Idx, int midSize, int depthBudget){
+    	int numElms = high - low;
+    	
+    	m_stats.addComparisons(2L * (numElms - 2) - (p1Idx - low));
+    	m_stats.partitioned(numElms, Math.min(midSize, Math.min(p1Idx - low, high - p2Idx - 1)), depthBudget);
+    }
+    //////////////////////////////////////////////////////////////////////////////
+    // Sorts m_arr's elements between low inclusive and high exclusive by merging their natural runs.
+    private void adaptiveSortSub(int low, int high){
+    	int[] runEnds = new int[maxRuns(high - low) + 1]; // runEnds[0] is low, run r is from runEnds[r] to runEnds[r+1]
+    	int   numRuns = 0;
+    	
+    	runEnds[0] = low;
+    	
+    	for( int i = low; i < high; ) {
+    		int runEnd = i + 1;
+    		
+    		if ( runEnd < high && m_arr[runEnd] < m_arr[i]) {   // a strictly descending run, which we reverse
+    			while ( runEnd + 1 < high && m_arr[runEnd + 1] < m_arr[runEnd])
+    				runEnd++;
+    			
+    			reverseArr(m_arr, i, ++runEnd);
+    		} else {
+    			while ( runEnd < high && m_arr[runEnd] >= m_arr[runEnd - 1])
+    				runEnd++;
+    		}
+    		
+    		if ( numRuns + 1 == runEnds.length) {  // the array isn't nearly sorted, so merging won't pay off.
+    			sortSub(low, high, IntroSort.depthBudget(high - low));
+    			return;
+    		}
+    		runEnds[++numRuns] = runEnd;
+    		i                  = runEnd;
+    	}
+    	
+    	while ( numRuns > 1) {   // merge neighbouring pairs of runs until only one is left
+    		int merged = 0;
+    		
+    		for( int r = 0; r < numRuns; r += 2) {
+    			if ( r + 1 < numRuns)
+    				mergeInPlace(runEnds[r], runEnds[r + 1], runEnds[r + 2]);
+    			
+    			runEnds[++merged] = runEnds[Math.min(r + 2, numRuns)];
+    		}
+    		numRuns = merged;
+    	}
+    }
+    //////////////////////////////////////////////////////////////////////////////
+    // The most runs adaptiveSortSub(..) will merge, before deciding that it should q-sort instead.
+    private static int maxRuns(int numElms){
+    	return Math.max(64, numElms >>> 10);
+    }
+    //////////////////////////////////////////////////////////////////////////////
+    // Merges the sorted ranges [low, mid) and [mid, high) without any buffer.
+    // First we skip the elements which are already in place: the start of the left run that is <= m_arr[mid], 
+    // and the end of the right run that is >= m_arr[mid-1]. With a few late arrivals that leaves very little.
+    // Otherwise we split the longer run in half, find where its middle element goes in the other run,
+    // rotate the two middle pieces past each other, and carry on with the two smaller merges.
+    private void mergeInPlace(int low, int mid, int high){
+    	
+    	while ( low < mid && mid < high) {
+    		
+    		low  = upperBound(low, mid, m_arr[mid]);
+    		high = lowerBound(mid, high, m_arr[mid - 1]);
+    		
+    		if ( low == mid || mid == high)
+    			return;
+    		
+    		int leftCut;
+    		int rightCut;
+    		
+    		if ( mid - low >= high - mid) {
+    			leftCut  = (low + mid) >>> 1;
+    			rightCut = lowerBound(mid, high, m_arr[leftCut]);
+    		} else {
+    			rightCut = (mid + high) >>> 1;
+    			leftCut  = upperBound(low, mid, m_arr[rightCut]);
+    		}
+    		rotate(leftCut, mid, rightCut);
+    		
+    		int newMid = leftCut + (rightCut - mid);
+    		
+    		// recurse into the smaller merge and loop round for the larger one.
+    		if ( newMid - low < high - newMid) {
+    			mergeInPlace(low, leftCut, newMid);
+    			low = newMid;
+    			mid = rightCut;
+    		} else {
+    			mergeInPlace(newMid, rightCut, high);
+    			high = newMid;
+    			mid  = leftCut;
+    		}
+    	}
+    }
+    //////////////////////////////////////////////////////////////////////////////
+    // Swaps the adjacent ranges [low, mid) and [mid, high), by reversing each of them and then the whole.
+    private void rotate(int low, int mid, int high){
+    	reverseArr(m_arr, low, mid);
+    	reverseArr(m_arr, mid, high);
+    	reverseArr(m_arr, low, high);
+    }
+    //////////////////////////////////////////////////////////////////////////////
+    // The first index in the sorted range [low, high) whose element is > val, or high if there isn't one.
+    private int upperBound(int low, int high, double val){
+    	
+    	while ( low < high) {
+    		int mid = (low + high) >>> 1;
+    		
+    		if ( m_arr[mid] > val)
+    			high = mid;
+    		else
+    			low  = mid + 1;
+    	}
+    	return low;
+    }
+    //////////////////////////////////////////////////////////////////////////////
+    // The first index in the sorted range [low, high) whose element is >= val, or high if there isn't one.
+    private int lowerBound(int low, int high, double val){
+    	
+    	while ( low < high) {
+    		int mid = (low + high) >>> 1;
+    		
+    		if ( m_arr[mid] >= val)
+    			high = mid;
+    		else
+    			low  = mid + 1;
+    	}
+    	return low;
+    }
+    //////////////////////////////////////////////////////////////////////////////
+    // Partitions m_arr's elements between low inclusive and high exclusive until the element at k is in its final place.
+    // Unlike sortSub(..) we only need to carry on with the side that contains k.
+    private void selectSub(int low, int high, int k, int depthBudget){
+       int available;
+       int runEnd;
+    	
+       while ( high > (low + 1)) {
+    	   
+    	   if ( depthBudget-- == 0) {
+    		   heapSort(low, high);
+    		   return;
+    	   }
+
+    	   available = partition(low, high);
+    	   runEnd    = pivotRunEnd(available, high);
+    	   
+    	   if ( k < available)
+    		   high = available;
+    	   else if ( k >= runEnd)
+    		   low  = runEnd;
+    	   else
+    		   return;   // k is the pivot, or equal to it.
+       }
+    }
+    //////////////////////////////////////////////////////////////////////////////
+    // Partitions m_arr's elements between low inclusive and high exclusive (at least 2 elements)
+    // using m_scheme, and returns the index at which the pivot ends up.
+    private int partition(int low, int high){
+    	
+    	if ( m_scheme == PartitionScheme.THREE_WAY)
+    		return holePartitionTiesRight(low, high);
+    	else if ( m_scheme == PartitionScheme.SIMD && SIMD_KERNEL != null && high - low >= SIMD_MIN_ELMS)
+    		return simdPartition(low, high);
+    	else
+    		return holePartition(low, high);
+    }
+    //////////////////////////////////////////////////////////////////////////////
+    // Once partition(..) has put a pivot at index available, returns the exclusive end 
+    // of the run of elements from available that are in their final place.
+    private int pivotRunEnd(int available, int high){
+    	
+    	if ( m_scheme == PartitionScheme.THREE_WAY)
+    		return gatherPivotEquals(available, high);
+    	else
+    		return available + 1;
+    }
+    //////////////////////////////////////////////////////////////////////////////
+    // Partitions m_arr's elements between low inclusive and high exclusive (at least 2 elements),
+    // and returns the index at which the pivot ends up.
+    // The partition state is held in local variables rather than fields, 
+    // so that calls working on disjoint ranges can run concurrently.
+    private int holePartition(int low, int high){
+	   int     pivotIdx       = idxOfMedianOfThree( low, (low + high)/2, high - 1 );    	   
+	   double  pivot          = m_arr[pivotIdx];
+	   int     available      = low;	   
+       boolean workingFromLow = false;
+       int     lowIdx         = low;
+       int     highIdx        = high;
+       int     moves          = 0;
+	   
+	   if ( pivotIdx != low)
+		    m_arr[pivotIdx] = m_arr[low];
+
+       while ( lowIdx  < highIdx){
+    	   
+           if (workingFromLow && (m_arr[++lowIdx] > pivot)){
+	           m_arr[available]  = m_arr[lowIdx];
+	           available         = lowIdx;
+	           workingFromLow    = false;
+	           moves++;
+
+           } else if ((!workingFromLow) && (pivot > m_arr[--highIdx])){
+	           m_arr[available]  = m_arr[highIdx];
+	           available         = highIdx;
+	           workingFromLow    = true;
+	           moves++;
+           }
+        }  // end of while  
+        
+        if ( m_stats != null)
+        	m_stats.addMoves(moves + (pivotIdx != low ? 2 : 1));
+        
+        m_arr[available] = pivot;  // the pivot is now in the correct position. 
+        
+        return available;
+    }
+    //////////////////////////////////////////////////////////////////////////////
+    // Partitions m_arr's elements between low inclusive and high exclusive (at least DUAL_PIVOT_MIN_ELMS of them)
+    // around the 2nd and 4th smallest, p1 and p2, of five elements spread evenly around the middle.
+    // Returns the indexes that p1 and p2 end up at, packed into a long as (p1Idx << 32) | p2Idx,
+    // with the elements below p1Idx < p1, those above p2Idx > p2, and the ones in between from p1 to p2.
+    //
+    // As in holePartition(..), we take the pivots out, which leaves holes at low and (high - 1) to put them back into at the end.
+    // We then scan up from low with k, while the elements < p1 build up from low, and those > p2 down from the top.
+    // Each element that is < p1 or > p2 is moved straight to its side, so at most once 
+    // (apart from the last one on each side, which finally fills the hole at that end).
+    // An element between the pivots stays where it is, unless an element < p1 is found after it while it is
+    // the first of the in-between elements, in which case it moves up into the hole that element left.
+    private long dualPivotPartition(int low, int high){
+    	int seventh = (high - low) / 7;
+    	int e3      = (low + high) >>> 1;
+    	int e2      = e3 - seventh;
+    	int e1      = e2 - seventh;
+    	int e4      = e3 + seventh;
+    	int e5      = e4 + seventh;
+    	
+    	sortFive(e1, e2, e3, e4, e5);
+    	
+    	double p1    = m_arr[e2];
+    	double p2    = m_arr[e4];
+    	int    less  = low + 1;    // the next place for an element < p1
+    	int    great = high - 2;   // the next place for an element > p2
+    	int    moves = 2;
+    	
+    	m_arr[e2] = m_arr[low];
+    	m_arr[e4] = m_arr[high - 1];
+    	
+    	// the elements that are already on the right side can stay there.
+    	while ( m_arr[less]  < p1) less++;
+    	while ( m_arr[great] > p2) great--;
+    	
+    	outer:
+    	for( int k = less; k <= great; k++) {
+    		double elm = m_arr[k];
+    		
+    		if ( elm < p1) {
+    			if ( k != less) {
+    				m_arr[k] = m_arr[less];
+    				moves++;
+    			}
+    			m_arr[less++] = elm;
+    			moves++;
+    			
+    		} else if ( elm > p2) {
+    			while ( m_arr[great] > p2) {   // find the highest element which isn't > p2, to fill the hole at k.
+    				if ( great-- == k)
+    					break outer;
+    			}
+    			
+    			if ( m_arr[great] < p1) {
+    				m_arr[k]      = m_arr[less];
+    				m_arr[less++] = m_arr[great];
+    				moves += 2;
+    			} else {
+    				m_arr[k] = m_arr[great];
+    				moves++;
+    			}
+    			m_arr[great--] = elm;
+    			moves++;
+    		}
+    	}
+    	
+    	// put the pivots back in their final places, moving the last element of each outer side into the holes at the ends.
+    	m_arr[low]       = m_arr[less - 1];
+    	m_arr[less - 1]  = p1;
+    	m_arr[high - 1]  = m_arr[great + 1];
+    	m_arr[great + 1] = p2;
+    	
+    	if ( m_stats != null)
+    		m_stats.addMoves(moves + 4);
+    	
+    	return ((long) (less - 1) << 32) | (great + 1);
+    }
+    //////////////////////////////////////////////////////////////////////////////
+    // Insertion sorts the five elements at the indexes i1 < i2 < i3 < i4 < i5.
+    private void sortFive(int i1, int i2, int i3, int i4, int i5){
+    	int[] idxs = { i1, i2, i3, i4, i5};
+    	
+    	for( int i = 1; i < 5; i++) {
+    		double elm = m_arr[idxs[i]];
+    		int    j   = i;
+    		
+    		while ( j > 0 && m_arr[idxs[j - 1]] > elm) {
+    			m_arr[idxs[j]] = m_arr[idxs[j - 1]];
+    			j--;
+    		}
+    		m_arr[idxs[j]] = elm;
+    	}
+    }
+    //////////////////////////////////////////////////////////////////////////////
+    // Loads DoubleSimdPartition by name, so that this class compiles and runs without the jdk.incubator.vector module.
+    // Returns null, so that SIMD falls back to the scalar partition, if the JVM wasn't started with the module,
+    // the simd/ source root wasn't compiled in, or the CPU's vectors aren't wide enough.
+    // We check the module before loading the class, as without the module it would fail to link.
+    private static DoublePartitionKernel loadSimdKernel(){
+    	
+    	if ( ! ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent())
+    		return null;
+    	
+    	try {
+    		DoublePartitionKernel kernel = (DoublePartitionKernel) Class.forName("DoubleSimdPartition").getDeclaredConstructor().newInstance();
+    		
+    		return ( kernel.isWorthwhile() ? kernel : null);
+    	} catch ( ReflectiveOperationException | LinkageError e) {
+    		return null;
+    	}
+    }
+    //////////////////////////////////////////////////////////////////////////////
+    // The same partition as holePartition(..), but done a vector at a time by SIMD_KERNEL.
+    // The pivot is parked at the end of the range while the rest is partitioned, and then swapped into place.
+    private int simdPartition(int low, int high){
+    	int    pivotIdx = idxOfMedianOfThree( low, (low + high)/2, high - 1 );
+    	double pivot    = m_arr[pivotIdx];
+    	
+    	m_arr[pivotIdx]  = m_arr[high - 1];
+    	m_arr[high - 1]  = pivot;
+    	
+    	int available    = SIMD_KERNEL.partition(m_arr, low, high - 1, pivot);
+    	
+    	m_arr[high - 1]  = m_arr[available];
+    	m_arr[available] = pivot;
+    	
+    	if ( m_stats != null)
+    		m_stats.addMoves(high - low + 3);  // every element is written once, plus the two swaps of the pivot.
+    	
+    	return available;
+    }
+    //////////////////////////////////////////////////////////////////////////////
+    // As holePartition(..), except that elements equal to the pivot all end up on the high side,
+    // i.e. everything below the returned index is strictly less than the pivot.
+    // That lets gatherPivotEquals(..) find all of the pivot's equals above it.
+    private int holePartitionTiesRight(int low, int high){
+	   int     pivotIdx       = idxOfMedianOfThree( low, (low + high)/2, high - 1 );    	   
+	   double  pivot          = m_arr[pivotIdx];
+	   int     available      = low;	   
+       boolean workingFromLow = false;
+       int     lowIdx         = low;
+       int     highIdx        = high;
+       int     moves          = 0;
+	   
+	   if ( pivotIdx != low)
+		    m_arr[pivotIdx] = m_arr[low];
+
+       while ( lowIdx  < highIdx){
+    	   
+           if (workingFromLow && (m_arr[++lowIdx] >= pivot)){
+	           m_arr[available]  = m_arr[lowIdx];
+	           available         = lowIdx;
+	           workingFromLow    = false;
+	           moves++;
+
+           } else if ((!workingFromLow) && (pivot > m_arr[--highIdx])){
+	           m_arr[available]  = m_arr[highIdx];
+	           available         = highIdx;
+	           workingFromLow    = true;
+	           moves++;
+           }
+        }  // end of while  
+        
+        if ( m_stats != null)
+        	m_stats.addMoves(moves + (pivotIdx != low ? 2 : 1));
+        
+        m_arr[available] = pivot;
+        
+        return available;
+    }
+    //////////////////////////////////////////////////////////////////////////////
+    // All the elements from (pivotIdx + 1) inclusive to high exclusive are >= the pivot at pivotIdx.
+    // Moves the ones equal to the pivot down next to it, and returns the exclusive end of that run.
+    // Since the NaNs have been moved out of the way and -0.0 replaced with 0.0, 
+    // an element equal to the pivot is indistinguishable from it, 
+    // so rather than needing a temp element to do swaps we can just write the pivot value.
+    private int gatherPivotEquals(int pivotIdx, int high){
+    	double pivot  = m_arr[pivotIdx];
+    	int    runEnd = pivotIdx + 1;
+    	
+    	for( int i = runEnd; i < high; i++){
+    		if ( m_arr[i] == pivot) {
+    			m_arr[i]        = m_arr[runEnd];
+    			m_arr[runEnd++] = pivot;
+    		}
+    	}
+    	
+    	if ( m_stats != null)
+    		m_stats.addMoves(2L * (runEnd - pivotIdx - 1));
+    	
+    	return runEnd;
+    }
+    ///////////////////////////////////////////////////////////////////////////
+    // Insertion sorts m_arr's elements between low inclusive and high exclusive.
+    // For a handful of elements this beats partitioning, as there's no pivot to choose and no recursion,
+    // and the inner loop is short and predictable. Like the partitioning it moves a hole rather than swapping:
+    // each element is taken out, the bigger ones before it are shifted up one, and it's dropped into the hole.
+    private void insertionSort(int low, int high){
+    	
+    	for( int i = low + 1; i < high; i++) {
+    		double elm = m_arr[i];
+    		int    j   = i;
+    		
+    		while ( j > low && m_arr[j - 1] > elm) {
+    			m_arr[j] = m_arr[j - 1];
+    			j--;
+    		}
+    		m_arr[j] = elm;
+    	}
+    }
+    ///////////////////////////////////////////////////////////////////////////
+    // An in-place heap sort of m_arr's elements between low inclusive and high exclusive.
+    // It is only used once a sub-array has used up its depth budget, and guarantees O(N log(N)).
+    private void heapSort(int low, int high){
+    	int numElms = high - low;
+    	
+    	for( int i = numElms / 2 - 1; i >= 0; i--)
+    		siftDown(low, i, numElms);
+    	
+    	for( int last = numElms - 1; last > 0; last--){
+    		double temp       = m_arr[low];
+    		m_arr[low]        = m_arr[low + last];
+    		m_arr[low + last] = temp;
+    		siftDown(low, 0, last);
+    	}
+    }
+    ///////////////////////////////////////////////////////////////////////////
+    // Restores the max-heap property below node i, in the heap of numElms elements starting at m_arr[low].
+    // As in the partitioning, we move a hole down the heap rather than doing swaps.
+    private void siftDown(int low, int i, int numElms){
+    	double elm = m_arr[low + i];
+    	int    child;
+    	
+    	while ( (child = 2 * i + 1) < numElms){
+    		
+    		if ( child + 1 < numElms && m_arr[low + child + 1] > m_arr[low + child])
+    			child++;
+    		
+    		if ( !(m_arr[low + child] > elm))
+    			break;
+    		
+    		m_arr[low + i] = m_arr[low + child];
+    		i              = child;
+    	}
+    	m_arr[low + i] = elm;
     }
     ///////////////////////////////////////////////////////////////////////////
     private int idxOfMedianOfThree( int i1, int i2, int i3){
@@ -105,5 +1097,234 @@ public class QSortDouble {
     		return i3;
     }
     //////////////////////////////////////////////////////////////////////////////////
-}    
-
+    // Sorts the arrays of a batch from index 'from' inclusive to 'to' exclusive,
+    // by splitting the range in half until it is no more than grain arrays.
+    private static class BatchSortTask extends RecursiveAction {
+    	private static final long serialVersionUID = 1L;
+    	
+    	private final List<double[]> m_arrs;
+    	private final int            m_from;
+    	private final int            m_to;
+    	private final boolean        m_ascending;
+    	private final int            m_grain;
+    	
+    	BatchSortTask(List<double[]> arrs, int from, int to, boolean ascending, int grain){
+    		m_arrs      = arrs;
+    		m_from      = from;
+    		m_to        = to;
+    		m_ascending = ascending;
+    		m_grain     = grain;
+    	}
+    	
+    	protected void compute(){
+    		if ( m_to - m_from <= m_grain)
+    			sortChunk(m_arrs, m_from, m_to, m_ascending);
+    		else {
+    			int mid = (m_from + m_to) >>> 1;
+    			invokeAll(new BatchSortTask(m_arrs, m_from, mid,  m_ascending, m_grain),
+    					  new BatchSortTask(m_arrs, mid,    m_to, m_ascending, m_grain));
+    		}
+    	}
+    }
+    //////////////////////////////////////////////////////////////////////////////////
+    // Sorts the elements between low inclusive and high exclusive.
+    // Each task partitions its own range and then forks a task for each side,
+    // the tasks only ever write to disjoint ranges of m_arr.
+    private class ParallelSortTask extends RecursiveAction {
+    	private static final long serialVersionUID = 1L;
+    	
+    	private final int m_low;
+    	private final int m_high;
+    	private final int m_depthBudget;
+    	
+    	ParallelSortTask(int low, int high, int depthBudget){
+    		m_low         = low;
+    		m_high        = high;
+    		m_depthBudget = depthBudget;
+    	}
+    	
+    	protected void compute(){
+    		if ( m_high - m_low <= PARALLEL_THRESHOLD || m_depthBudget == 0)
+    			sortSub(m_low, m_high, m_depthBudget);
+    		else {
+    			int available = partition(m_low, m_high);
+    			int runEnd    = pivotRunEnd(available, m_high);
+    			invokeAll(new ParallelSortTask(m_low,  available, m_depthBudget - 1),
+    					  new ParallelSortTask(runEnd, m_high,    m_depthBudget - 1));
+    		}
+    	}
+    }
+    //////////////////////////////////////////////////////////////////////////////////
+    // The iterator behind incrementalIterator(..).
+    // Ascending, the elements before m_next have been returned, and all those before m_settled are in their final places.
+    // m_runs is a stack of the runs of pivots (each pivot along with its equals) that are in their final places further up,
+    // the lowest of them on top. Each entry is 3 ints: the run's start, its exclusive end, and the depth budget left
+    // for the sub-array between it and the next run up. m_depthBudget is the budget of the sub-array being settled,
+    // so the introsort bound carries over from one call of nextDouble() to the next, as in QSort.IncrementalIterator.
+    // Descending is the mirror image: we work down from the end, the elements after m_next have been returned, 
+    // those from m_settled on are in their final places, and m_runs holds runs further down, the highest on top,
+    // each with the budget of the sub-array below it.
+    //
+    // As in sort(..), the partitioning can't order NaNs, so they are moved out of the way first,
+    // and it doesn't order -0.0 before 0.0. So when we first come to a zero, we gather all of the remaining zeros 
+    // next to it, with the -0.0s first, which settles all of them at once.
+    private static class IncrementalIterator implements PrimitiveIterator.OfDouble {
+    	private final QSortDouble m_sorter;
+    	private final double[]    m_arr;
+    	private final boolean     m_ascending;
+    	private final int         m_end;          // the exclusive end of the elements that aren't NaN.
+    	private int[]             m_runs        = new int[3 * 32];
+    	private int               m_numRuns     = 0;
+    	private int               m_next;
+    	private int               m_settled;
+    	private int               m_depthBudget;
+    	private boolean           m_zerosGathered = false;
+    	
+    	IncrementalIterator(QSortDouble sorter, boolean ascending){
+    		m_sorter    = sorter;
+    		m_arr       = sorter.m_arr;
+    		m_ascending = ascending;
+    		m_end       = sorter.moveNaNsToEnd(0, m_arr.length);
+    		m_next      = ( ascending ? 0 : m_arr.length - 1);
+    		m_settled   = ( ascending ? 0 : m_end);    // descending, the NaNs come first, and are already in place.
+    		m_depthBudget = IntroSort.depthBudget(m_end);
+    	}
+    	
+    	public boolean hasNext(){
+    		return ( m_ascending ? m_next < m_arr.length : m_next >= 0);
+    	}
+    	
+    	public double nextDouble(){
+    		
+    		if ( !hasNext())
+    			throw new NoSuchElementException();
+    		
+    		if ( m_ascending) {
+    			if ( m_next >= m_settled && m_next < m_end)
+    				settleNextUp();
+    		} else if ( m_next < m_settled)
+    			settleNextDown();
+    		
+    		if ( m_arr[m_next] == 0.0 && !m_zerosGathered)
+    			gatherZeros();
+    		
+    		return ( m_ascending ? m_arr[m_next++] : m_arr[m_next--]);
+    	}
+    	
+    	// Partitions the sub-array from m_next up to the lowest run, keeping the low side each time, 
+    	// until m_next is in its final place.
+    	private void settleNextUp(){
+    		
+    		while ( true) {
+    			int end = ( m_numRuns > 0 ? m_runs[3 * m_numRuns - 3] : m_end);
+    			
+    			if ( end == m_next) {  // m_next starts the lowest run, which is already in place.
+    				pop();
+    				m_settled = m_runs[3 * m_numRuns + 1];
+    				return;
+    			}
+    			
+    			if ( end - m_next <= Math.max(1, m_sorter.m_smallSortCutoff)) {
+    				m_sorter.insertionSort(m_next, end);
+    				m_settled = end;
+    				return;
+    			}
+    			
+    			if ( m_depthBudget-- == 0) {
+    				m_sorter.heapSort(m_next, end);
+    				m_settled = end;
+    				return;
+    			}
+    			partitionAndPush(m_next, end);
+    		}
+    	}
+    	
+    	// As settleNextUp(), working down from m_next to the highest run below it, keeping the high side each time.
+    	private void settleNextDown(){
+    		
+    		while ( true) {
+    			int low = ( m_numRuns > 0 ? m_runs[3 * m_numRuns - 2] : 0);
+    			
+    			if ( low == m_next + 1) {  // m_next ends the highest run, which is already in place.
+    				pop();
+    				m_settled = m_runs[3 * m_numRuns];
+    				return;
+    			}
+    			
+    			if ( m_next + 1 - low <= Math.max(1, m_sorter.m_smallSortCutoff)) {
+    				m_sorter.insertionSort(low, m_next + 1);
+    				m_settled = low;
+    				return;
+    			}
+    			
+    			if ( m_depthBudget-- == 0) {
+    				m_sorter.heapSort(low, m_next + 1);
+    				m_settled = low;
+    				return;
+    			}
+    			partitionAndPush(low, m_next + 1);
+    		}
+    	}
+    	
+    	// Partitions low inclusive to high exclusive into those less than the pivot, the pivot and its equals, 
+    	// and those greater than it, so that a run of equal elements is settled in one go, and pushes the middle run.
+    	// Both of the other sides get what is left of m_depthBudget.
+    	private void partitionAndPush(int low, int high){
+    		int runStart = m_sorter.holePartitionTiesRight(low, high);
+    		
+    		// gatherPivotEquals(..) writes the pivot over its equals, which would lose the -0.0s,
+    		// so a zero pivot is left on its own. gatherZeros() settles all of the zeros at once anyway.
+    		int runEnd   = ( m_arr[runStart] == 0.0 ? runStart + 1 : m_sorter.gatherPivotEquals(runStart, high));
+    		
+    		if ( m_numRuns == m_runs.length / 3)
+    			m_runs = Arrays.copyOf(m_runs, 2 * m_runs.length);
+    		
+    		m_runs[3 * m_numRuns]     = runStart;
+    		m_runs[3 * m_numRuns + 1] = runEnd;
+    		m_runs[3 * m_numRuns + 2] = m_depthBudget;
+    		m_numRuns++;
+    	}
+    	
+    	// Pops the top run, whose far side's sub-array is the next one to be settled.
+    	private void pop(){
+    		m_numRuns--;
+    		m_depthBudget = m_runs[3 * m_numRuns + 2];
+    	}
+    	
+    	// m_next has just been settled, and is a zero. So all the elements still to come are zeros or further on,
+    	// and we can swap the zeros among them next to m_next without upsetting anything but the stack of runs,
+    	// which we clear, leaving the rest as one sub-array with a fresh depth budget. The zeros are then all in their final places.
+    	private void gatherZeros(){
+    		int numZeros    = 0;
+    		int numNegative = 0;
+    		int step        = ( m_ascending ? 1 : -1);
+    		int stop        = ( m_ascending ? m_end : -1);
+    		
+    		for( int i = m_next; i != stop; i += step) {
+    			double elm = m_arr[i];
+    			
+    			if ( elm == 0.0) {
+    				int dest = m_next + step * numZeros++;
+    				
+    				if ( Double.doubleToRawLongBits(elm) != 0L)
+    					numNegative++;
+    				
+    				m_arr[i]    = m_arr[dest];
+    				m_arr[dest] = elm;
+    			}
+    		}
+    		
+    		// the -0.0s go first ascending, and last descending.
+    		int numFirst = ( m_ascending ? numNegative : numZeros - numNegative);
+    		
+    		for( int z = 0; z < numZeros; z++)
+    			m_arr[m_next + step * z] = ( (z < numFirst) == m_ascending ? -0.0 : 0.0);
+    		
+    		m_numRuns       = 0;
+    		m_settled       = m_next + step * numZeros - ( m_ascending ? 0 : step);
+    		m_depthBudget   = IntroSort.depthBudget(m_ascending ? m_end - m_settled : m_settled);
+    		m_zerosGathered = true;
+    	}
+    }
+    //////////////////////////////////////////////////////////////////////////////////
+}
@@ -0,0 +1,219 @@
+// A primitive float version of the sorting algorithm in QSortDouble, 
+// see there (and the README) for a description of how the partitioning works.
+// As with the double version, when sorting floats it only requires one extra temp float to be stored,
+// and no float values need to be boxed.
+public class QSortFloat {
+	private float[]  m_arr;
+	    
+    // The elements of arr will be rearranged.
+    // The ordering is the same total order as Float.compare(..), i.e. -0.0f comes before 0.0f
+    // and NaNs come after everything else (or before everything else when descending).
+    public static void sort(float[] arr, boolean ascending){
+    	
+    	if ( arr == null)
+    		return; // possibly could give a warning.
+    	
+    	sort(arr, 0, arr.length, ascending);
+    }
+    ///////////////////////////////////////////////////////////////////////////
+    // Sorts the elements of arr from index 'from' inclusive to 'to' exclusive,
+    // the elements outside that range are left untouched.
+    public static void sort(float[] arr, int from, int to, boolean ascending){
+    	
+    	if ( arr == null)
+    		return; // possibly could give a warning.
+    	
+    	SortRange.check(arr.length, from, to);
+    	
+        QSortFloat sorter   = new QSortFloat(arr);
+        int   end      = sorter.moveNaNsToEnd(from, to);
+        int   negZeros = sorter.replaceNegativeZeros(from, end);
+        
+        sorter.sortSub(from, end, IntroSort.depthBudget(end - from));
+        sorter.restoreNegativeZeros(from, end, negZeros);
+                
+        if ( !ascending)
+        	reverseArr( arr, from, to);        
+    }
+    ///////////////////////////////////////////////////////////////////////////
+    public static void reverseArr(float[] arr){
+    	reverseArr(arr, 0, arr.length);
+    }
+    ///////////////////////////////////////////////////////////////////////////
+    // reverses the elements from index 'from' inclusive to 'to' exclusive.
+    private static void reverseArr(float[] arr, int from, int to){
+    	
+    	int halfN      = (to - from) / 2;
+    	int toMinusOne = to - 1;
+    	
+    	for( int i = 0; i < halfN; i++ ) {
+    		
+    		float temp    = arr[from + i];
+    		int   j       = toMinusOne - i;
+    		
+    		arr[from + i] = arr[j];
+    		arr[j]        = temp;
+    	}    		
+    }
+    ///////////////////////////////////////////////////////////////////////////
+    // The partitioning below uses the primitive '>' operator, for which NaN is unordered 
+    // and -0.0f equals 0.0f. So before sorting we move the NaNs to the end of the range,
+    // and return the (exclusive) end of the remaining non-NaN elements.
+    private int moveNaNsToEnd(int from, int to){
+    	int end = to;
+    	
+    	for( int i = to - 1; i >= from; i--){
+    		if ( Float.isNaN(m_arr[i])) {
+    			float temp     = m_arr[i];
+    			m_arr[i]       = m_arr[--end];
+    			m_arr[end]     = temp;
+    		}
+    	}
+    	return end;
+    }
+    ///////////////////////////////////////////////////////////////////////////
+    // Replaces each -0.0f with 0.0f, and returns how many were replaced.
+    private int replaceNegativeZeros(int from, int to){
+    	int count = 0;
+    	
+    	for( int i = from; i < to; i++){
+    		if ( m_arr[i] == 0.0f && Float.floatToRawIntBits(m_arr[i]) != 0) {
+    			m_arr[i] = 0.0f;
+    			count++;
+    		}
+    	}
+    	return count;
+    }
+    ///////////////////////////////////////////////////////////////////////////
+    // Once the range is sorted, the zeros are all together, 
+    // so we write the -0.0fs back over the first 'count' of them.
+    private void restoreNegativeZeros(int from, int to, int count){
+    	
+    	if ( count == 0)
+    		return;
+    	
+    	int low  = from;   // find the index of the first element that is not negative
+    	int high = to;
+    	
+    	while ( low < high){
+    		int mid = (low + high) >>> 1;
+    		
+    		if ( m_arr[mid] < 0.0f)
+    			low  = mid + 1;
+    		else
+    			high = mid;
+    	}
+    	
+    	for( int i = 0; i < count; i++)
+    		m_arr[low + i] = -0.0f;
+    }
+    /////////////////////////////////////////////////////////////////////////////
+    // We have a constructor which is private! 
+    // It is only called from within the static sort(..) method.
+    private QSortFloat(float[] arr){
+    	m_arr = arr;
+    }
+    //////////////////////////////////////////////////////////////////////////////
+    // will sort m_arr's elements between low inclusive and high exclusive.
+    // depthBudget is the number of further partitioning levels allowed before we fall back to heap sort.
+    private void sortSub(int low, int high, int depthBudget){    
+       int available;
+    	
+       while ( high > (low + 1)) { // when there are 0 or 1 elements, there is nothing to be done.
+    	   
+    	   if ( depthBudget-- == 0) {
+    		   heapSort(low, high);
+    		   return;
+    	   }
+
+    	   available = partition(low, high);
+       
+    	   // We only recurse into the smaller side and loop round to sort the larger side,
+    	   // so the stack never gets more than log2(N) calls deep.
+    	   if ( available - low < high - available) {
+    		   sortSub(low, available, depthBudget);
+    		   low  = available + 1;
+    	   } else {
+    		   sortSub(available + 1, high, depthBudget);
+    		   high = available;
+    	   }
+       }
+    }
+    //////////////////////////////////////////////////////////////////////////////
+    // Partitions m_arr's elements between low inclusive and high exclusive (at least 2 elements),
+    // and returns the index at which the pivot ends up.
+    private int partition(int low, int high){
+	   int     pivotIdx       = idxOfMedianOfThree( low, (low + high)/2, high - 1 );    	   
+	   float   pivot          = m_arr[pivotIdx];
+	   int     available      = low;	   
+       boolean workingFromLow = false;
+       int     lowIdx         = low;
+       int     highIdx        = high;
+	   
+	   if ( pivotIdx != low)
+		    m_arr[pivotIdx] = m_arr[low];
+
+       while ( lowIdx  < highIdx){
+    	   
+           if (workingFromLow && (m_arr[++lowIdx] > pivot)){
+	           m_arr[available]  = m_arr[lowIdx];
+	           available         = lowIdx;
+	           workingFromLow    = false;
+
+           } else if ((!workingFromLow) && (pivot > m_arr[--highIdx])){
+	           m_arr[available]  = m_arr[highIdx];
+	           available         = highIdx;
+	           workingFromLow    = true;   		           
+           }
+        }  // end of while  
+        m_arr[available] = pivot;  // the pivot is now in the correct position. 
+        
+        return available;
+    }
+    ///////////////////////////////////////////////////////////////////////////
+    // An in-place heap sort of m_arr's elements between low inclusive and high exclusive.
+    // It is only used once a sub-array has used up its depth budget, and guarantees O(N log(N)).
+    private void heapSort(int low, int high){
+    	int numElms = high - low;
+    	
+    	for( int i = numElms / 2 - 1; i >= 0; i--)
+    		siftDown(low, i, numElms);
+    	
+    	for( int last = numElms - 1; last > 0; last--){
+    		float temp        = m_arr[low];
+    		m_arr[low]        = m_arr[low + last];
+    		m_arr[low + last] = temp;
+    		siftDown(low, 0, last);
+    	}
+    }
+    ///////////////////////////////////////////////////////////////////////////
+    // Restores the max-heap property below node i, in the heap of numElms elements starting at m_arr[low].
+    // As in the partitioning, we move a hole down the heap rather than doing swaps.
+    private void siftDown(int low, int i, int numElms){
+    	float elm  = m_arr[low + i];
+    	int   child;
+    	
+    	while ( (child = 2 * i + 1) < numElms){
+    		
+    		if ( child + 1 < numElms && m_arr[low + child + 1] > m_arr[low + child])
+    			child++;
+    		
+    		if ( !(m_arr[low + child] > elm))
+    			break;
+    		
+    		m_arr[low + i] = m_arr[low + child];
+    		i              = child;
+    	}
+    	m_arr[low + i] = elm;
+    }
+    ///////////////////////////////////////////////////////////////////////////
+    private int idxOfMedianOfThree( int i1, int i2, int i3){
+    	if ( (m_arr[i2] > m_arr[i1]) == (m_arr[i1] > m_arr[i3]))
+    		return i1;
+    	else if ( (m_arr[i1] > m_arr[i2]) == (m_arr[i2] > m_arr[i3]))
+    		return i2;
+    	else
+    		return i3;
+    }
+    //////////////////////////////////////////////////////////////////////////////////
+}
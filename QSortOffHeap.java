@@ -0,0 +1,265 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+// Sorts fixed-width doubles or longs in place where they already are, in a direct ByteBuffer
+// or in a memory-mapped region of a file, so that they never need to be copied onto the heap.
+// It uses the same hole-moving partition as QSortDouble, so again only one extra temp element is needed.
+//
+// A single ByteBuffer is limited to 2GB, so a file region is mapped as a sequence of pages,
+// and the elements are indexed with longs across those pages.
+// (A MemorySegment would avoid the paging, but it is not a standard API on the Java versions we build for.)
+//
+// The doubles are ordered as by Double.compare(..), so -0.0 comes before 0.0 and NaNs come last,
+// which matches QSortDouble.sort(..).
+public class QSortOffHeap {
+	private LongBuffer[] m_pages;
+	private boolean      m_doubles;   // if true then the 8 byte elements are doubles, otherwise longs.
+
+	// each page holds 2^PAGE_SHIFT elements, i.e. 1GB.
+	private static final int  PAGE_SHIFT = 27;
+	private static final long PAGE_ELMS  = 1L << PAGE_SHIFT;
+	private static final long PAGE_MASK  = PAGE_ELMS - 1;
+
+	private static final long CANONICAL_NAN_BITS = Double.doubleToLongBits(Double.NaN);
+
+    ///////////////////////////////////////////////////////////////////////////
+    // Sorts the doubles between buf's position and limit, using buf's byte order.
+    // The buffer's position and limit are left unchanged.
+    public static void sortDoubles(ByteBuffer buf, boolean ascending){
+    	sort(buf, true, ascending);
+    }
+    ///////////////////////////////////////////////////////////////////////////
+    public static void sortLongs(ByteBuffer buf, boolean ascending){
+    	sort(buf, false, ascending);
+    }
+    ///////////////////////////////////////////////////////////////////////////
+    // Sorts 'count' doubles stored from byte 'offset' of the file, e.g. a column of a binary file.
+    // They must all be within the file, as mapping beyond its end would grow it.
+    public static void sortDoubles(FileChannel channel, long offset, long count, ByteOrder order, boolean ascending) throws IOException{
+    	sort(channel, offset, count, order, true, ascending);
+    }
+    ///////////////////////////////////////////////////////////////////////////
+    public static void sortLongs(FileChannel channel, long offset, long count, ByteOrder order, boolean ascending) throws IOException{
+    	sort(channel, offset, count, order, false, ascending);
+    }
+    ///////////////////////////////////////////////////////////////////////////
+    // Sorts a whole file of doubles, whose size must be a multiple of 8 bytes.
+    public static void sortDoubles(Path file, ByteOrder order, boolean ascending) throws IOException{
+
+    	try ( FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+    		sort(channel, 0, wholeFileCount(channel), order, true, ascending);
+    	}
+    }
+    ///////////////////////////////////////////////////////////////////////////
+    public static void sortLongs(Path file, ByteOrder order, boolean ascending) throws IOException{
+
+    	try ( FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+    		sort(channel, 0, wholeFileCount(channel), order, false, ascending);
+    	}
+    }
+    ///////////////////////////////////////////////////////////////////////////
+    // The number of elements in the whole file. A partial element at the end would mean it isn't the file we think it is.
+    private static long wholeFileCount(FileChannel channel) throws IOException{
+    	long size = channel.size();
+
+    	if ( size % Long.BYTES != 0)
+    		throw new IllegalArgumentException("The file's size, " + size + " bytes, is not a multiple of " + Long.BYTES);
+
+    	return size / Long.BYTES;
+    }
+    ///////////////////////////////////////////////////////////////////////////
+    private static void sort(ByteBuffer buf, boolean doubles, boolean ascending){
+
+    	if ( buf == null)
+    		return; // possibly could give a warning.
+
+    	ByteBuffer   view     = buf.slice().order(buf.order());
+    	long         numElms  = view.remaining() / Long.BYTES;
+    	LongBuffer[] pages    = new LongBuffer[numPages(numElms)];
+
+    	for( int p = 0; p < pages.length; p++) {
+    		int startByte = (int) (p * PAGE_ELMS * Long.BYTES);
+    		int numBytes  = (int) (pageLength(numElms, p) * Long.BYTES);
+    		pages[p]      = view.slice(startByte, numBytes).order(buf.order()).asLongBuffer();
+    	}
+    	new QSortOffHeap(pages, doubles).sortAll(numElms, ascending);
+    }
+    ///////////////////////////////////////////////////////////////////////////
+    private static void sort(FileChannel channel, long offset, long count, ByteOrder order, boolean doubles, boolean ascending) throws IOException{
+    	long size = channel.size();
+
+    	// count is checked against the bytes after offset, rather than offset + count * 8 against size, which could overflow.
+    	if ( offset < 0 || count < 0 || offset > size || count > (size - offset) / Long.BYTES)
+    		throw new IllegalArgumentException("Can't sort " + count + " elements from byte " + offset + " of a file of " + size + " bytes");
+
+    	MappedByteBuffer[] mapped = new MappedByteBuffer[numPages(count)];
+    	LongBuffer[]       pages  = new LongBuffer[mapped.length];
+
+    	for( int p = 0; p < pages.length; p++) {
+    		long startByte = offset + p * PAGE_ELMS * Long.BYTES;
+    		mapped[p]      = channel.map(FileChannel.MapMode.READ_WRITE, startByte, pageLength(count, p) * Long.BYTES);
+    		pages[p]       = mapped[p].order(order).asLongBuffer();
+    	}
+    	new QSortOffHeap(pages, doubles).sortAll(count, ascending);
+
+    	for( MappedByteBuffer page : mapped)
+    		page.force();
+    }
+    ///////////////////////////////////////////////////////////////////////////
+    private static int numPages(long numElms){
+    	return (int) ((numElms + PAGE_ELMS - 1) >>> PAGE_SHIFT);
+    }
+    ///////////////////////////////////////////////////////////////////////////
+    private static long pageLength(long numElms, int page){
+    	return Math.min(PAGE_ELMS, numElms - page * PAGE_ELMS);
+    }
+    /////////////////////////////////////////////////////////////////////////////
+    private QSortOffHeap(LongBuffer[] pages, boolean doubles){
+    	m_pages   = pages;
+    	m_doubles = doubles;
+    }
+    ///////////////////////////////////////////////////////////////////////////
+    private void sortAll(long numElms, boolean ascending){
+
+    	sortSub(0, numElms, IntroSort.depthBudget(numElms));
+
+    	if ( !ascending) {
+    		for( long i = 0, j = numElms - 1; i < j; i++, j--) {
+    			long temp = get(i);
+    			set(i, get(j));
+    			set(j, temp);
+    		}
+    	}
+    }
+    ///////////////////////////////////////////////////////////////////////////
+    // The raw 8 bytes of element i.
+    private long get(long i){
+    	return m_pages[(int) (i >>> PAGE_SHIFT)].get((int) (i & PAGE_MASK));
+    }
+    ///////////////////////////////////////////////////////////////////////////
+    private void set(long i, long bits){
+    	m_pages[(int) (i >>> PAGE_SHIFT)].put((int) (i & PAGE_MASK), bits);
+    }
+    ///////////////////////////////////////////////////////////////////////////
+    // Maps an element's raw bits onto a long that compares in the order we want to sort in.
+    // For doubles that is the Double.compare(..) order, see KeyIndexSort.sortableBits(..).
+    private long key(long bits){
+
+    	if ( !m_doubles)
+    		return bits;
+
+    	if ( (bits & Long.MAX_VALUE) > 0x7ff0000000000000L)  // i.e. it's a NaN
+    		bits = CANONICAL_NAN_BITS;
+
+    	return bits ^ ((bits >> 63) & Long.MAX_VALUE);
+    }
+    //////////////////////////////////////////////////////////////////////////////
+    // will sort the elements between low inclusive and high exclusive.
+    private void sortSub(long low, long high, int depthBudget){
+       long available;
+
+       while ( high > (low + 1)) {
+
+    	   if ( depthBudget-- == 0) {
+    		   heapSort(low, high);
+    		   return;
+    	   }
+
+    	   available = partition(low, high);
+
+    	   if ( available - low < high - available) {
+    		   sortSub(low, available, depthBudget);
+    		   low  = available + 1;
+    	   } else {
+    		   sortSub(available + 1, high, depthBudget);
+    		   high = available;
+    	   }
+       }
+    }
+    //////////////////////////////////////////////////////////////////////////////
+    private long partition(long low, long high){
+	   long    pivotIdx       = idxOfMedianOfThree( low, (low + high) >>> 1, high - 1 );
+	   long    pivotBits      = get(pivotIdx);
+	   long    pivot          = key(pivotBits);
+	   long    available      = low;
+       boolean workingFromLow = false;
+       long    lowIdx         = low;
+       long    highIdx        = high;
+       long    bits;
+
+	   if ( pivotIdx != low)
+		    set(pivotIdx, get(low));
+
+       while ( lowIdx  < highIdx){
+
+           if (workingFromLow && (key(bits = get(++lowIdx)) > pivot)){
+	           set(available, bits);
+	           available         = lowIdx;
+	           workingFromLow    = false;
+
+           } else if ((!workingFromLow) && (pivot > key(bits = get(--highIdx)))){
+	           set(available, bits);
+	           available         = highIdx;
+	           workingFromLow    = true;
+           }
+        }  // end of while
+        set(available, pivotBits);
+
+        return available;
+    }
+    ///////////////////////////////////////////////////////////////////////////
+    private void heapSort(long low, long high){
+    	long numElms = high - low;
+
+    	for( long i = numElms / 2 - 1; i >= 0; i--)
+    		siftDown(low, i, numElms);
+
+    	for( long last = numElms - 1; last > 0; last--){
+    		long temp = get(low);
+    		set(low, get(low + last));
+    		set(low + last, temp);
+    		siftDown(low, 0, last);
+    	}
+    }
+    ///////////////////////////////////////////////////////////////////////////
+    private void siftDown(long low, long i, long numElms){
+    	long elmBits = get(low + i);
+    	long elm     = key(elmBits);
+    	long child;
+
+    	while ( (child = 2 * i + 1) < numElms){
+
+    		if ( child + 1 < numElms && key(get(low + child + 1)) > key(get(low + child)))
+    			child++;
+
+    		long childBits = get(low + child);
+
+    		if ( !(key(childBits) > elm))
+    			break;
+
+    		set(low + i, childBits);
+    		i = child;
+    	}
+    	set(low + i, elmBits);
+    }
+    ///////////////////////////////////////////////////////////////////////////
+    private long idxOfMedianOfThree( long i1, long i2, long i3){
+    	long k1 = key(get(i1));
+    	long k2 = key(get(i2));
+    	long k3 = key(get(i3));
+
+    	if ( (k2 > k1) == (k1 > k3))
+    		return i1;
+    	else if ( (k1 > k2) == (k2 > k3))
+    		return i2;
+    	else
+    		return i3;
+    }
+    //////////////////////////////////////////////////////////////////////////////////
+}
@@ -0,0 +1,659 @@
+import java.util.Arrays;
+
+// A radix sort of double[], float[], long[] and int[], for large arrays where q-sort's
+// N log(N) comparisons cost more than a few passes over the data.
+// Each element is mapped onto an unsigned key that orders the same way as the primitive values,
+// see the key(..) methods, so the doubles and floats come out in the same total order as QSortDouble and QSortFloat,
+// and the keys are bucketed a digit at a time.
+//
+// With a scratch buffer as big as the array, we do LSD passes, bouncing between the array and the buffer.
+// The digit width depends on the array size: 8 bits for small arrays so the counts stay in cache,
+// up to 16 bits for big arrays so there are fewer passes. 
+// A histogram of every digit is made in one pass up front, and any digit on which all of the keys agree is skipped,
+// so e.g. ints that are all small and positive only need the passes for their low digits.
+//
+// Unlike the q-sorts, that needs an N element scratch buffer. So for callers who need to cap the memory,
+// the scratch buffer can be limited, in which case we first do in-place MSD passes (American flag sort) 
+// on 8 bit digits, which only move elements along cycles with one temp, until the buckets fit into the buffer.
+// Small buckets are finished off with the q-sort.
+public class RadixSort {
+	
+	// Arrays shorter than this are just q-sorted.
+	static final int RADIX_THRESHOLD = 1 << 10;
+	
+	// MSD buckets with at most this many elements are q-sorted rather than radix sorted.
+	private static final int SMALL_BUCKET = 64;
+	
+	private static final int MSD_BITS   = 8;
+	private static final int MSD_RADIX  = 1 << MSD_BITS;
+	private static final int KEY_BITS_64 = 64;
+	private static final int KEY_BITS_32 = 32;
+	
+    ///////////////////////////////////////////////////////////////////////////
+    // Sorts arr into the same order as QSortDouble.sort(..).
+    // Below RADIX_THRESHOLD elements that is what we call, above it we radix sort with an N element scratch buffer.
+    public static void sort(double[] arr, boolean ascending){
+    	sort(arr, ascending, Integer.MAX_VALUE);
+    }
+    ///////////////////////////////////////////////////////////////////////////
+    // As above, but the scratch buffer is never more than maxScratchElms elements.
+    // With a smaller buffer we first do in-place MSD passes, until the buckets fit into the buffer.
+    // maxScratchElms = 0 gives a fully in-place radix sort.
+    public static void sort(double[] arr, boolean ascending, int maxScratchElms){
+    	
+    	if ( arr == null)
+    		return; // possibly could give a warning.
+    	
+    	if ( arr.length < RADIX_THRESHOLD) {
+    		QSortDouble.sort(arr, ascending);
+    		return;
+    	}
+    	
+    	// NaNs have no place in the key order, so as in QSortDouble they are moved to the end first.
+    	int end = arr.length;
+    	
+    	for( int i = end - 1; i >= 0; i--){
+    		if ( Double.isNaN(arr[i])) {
+    			double temp = arr[i];
+    			arr[i]      = arr[--end];
+    			arr[end]    = temp;
+    		}
+    	}
+    	
+    	if ( end <= maxScratchElms)
+    		lsd(arr, 0, end, new double[end], KEY_BITS_64);
+    	else {
+    		int      scratchElms = Math.min(maxScratchElms, end);
+    		double[] scratch     = ( scratchElms > SMALL_BUCKET ? new double[scratchElms] : null);
+    		
+    		msd(arr, 0, end, KEY_BITS_64 - MSD_BITS, scratch);
+    	}
+    	
+    	if ( !ascending)
+    		QSortDouble.reverseArr(arr);
+    }
+    ///////////////////////////////////////////////////////////////////////////
+    // Maps the raw bits onto a key which orders as unsigned in the Double.compare(..) order,
+    // by flipping all the bits of a negative double and just the sign bit of a positive one.
+    private static long key(double val){
+    	long bits = Double.doubleToRawLongBits(val);
+    	return bits ^ ((bits >> 63) | Long.MIN_VALUE);
+    }
+    ///////////////////////////////////////////////////////////////////////////
+    // LSD sorts arr between from inclusive and to exclusive, by the lowest numBits bits of the keys,
+    // bouncing between arr and scratch. 
+    private static void lsd(double[] arr, int from, int to, double[] scratch, int numBits){
+    	int     numElms   = to - from;
+    	int     digitBits = digitBits(numElms);
+    	int     numDigits = (numBits + digitBits - 1) / digitBits;
+    	int     mask      = (1 << digitBits) - 1;
+    	int[][] counts    = new int[numDigits][1 << digitBits];
+    	
+    	for( int i = from; i < to; i++) {   // one pass makes all of the histograms.
+    		long k = key(arr[i]);
+    		
+    		for( int d = 0; d < numDigits; d++)
+    			counts[d][(int) ((k >>> (d * digitBits)) & mask)]++;
+    	}
+    	
+    	double[] src    = arr;
+    	int      srcOff = from;
+    	double[] dst    = scratch;
+    	int      dstOff = 0;
+    	
+    	for( int d = 0; d < numDigits; d++) {
+    		int   shift  = d * digitBits;
+    		int[] offset = counts[d];
+    		
+    		if ( offset[(int) ((key(arr[from]) >>> shift) & mask)] == numElms)
+    			continue;  // all the keys have the same digit, so this pass wouldn't change anything.
+    		
+    		for( int b = 0, sum = dstOff; b < offset.length; b++) {
+    			int count = offset[b];
+    			offset[b] = sum;
+    			sum      += count;
+    		}
+    		
+    		for( int i = srcOff, srcEnd = srcOff + numElms; i < srcEnd; i++) {
+    			double val = src[i];
+    			dst[offset[(int) ((key(val) >>> shift) & mask)]++] = val;
+    		}
+    		
+    		double[] tempArr = src;    src    = dst;    dst    = tempArr;
+    		int      tempOff = srcOff; srcOff = dstOff; dstOff = tempOff;
+    	}
+    	
+    	if ( src != arr)
+    		System.arraycopy(src, srcOff, arr, from, numElms);
+    }
+    ///////////////////////////////////////////////////////////////////////////
+    // Sorts arr between from inclusive and to exclusive, whose keys all agree above bit (shift + MSD_BITS),
+    // with an in-place MSD pass on the digit at shift (an "American flag sort").
+    // Each bucket is then sorted by the lower bits, with lsd(..) if it fits in the scratch buffer,
+    // or else with another MSD pass.
+    private static void msd(double[] arr, int from, int to, int shift, double[] scratch){
+    	int[] next = new int[MSD_RADIX];   // where the next element of each bucket goes.
+    	int[] end  = new int[MSD_RADIX];
+    	
+    	while ( true) {
+    		for( int i = from; i < to; i++)
+    			end[digit(key(arr[i]), shift)]++;
+    		
+    		if ( end[digit(key(arr[from]), shift)] < to - from)
+    			break;
+    		
+    		// all the keys have the same digit here, so we go straight on to the next digit.
+    		if ( shift == 0)
+    			return;
+    		
+    		Arrays.fill(end, 0);
+    		shift = Math.max(0, shift - MSD_BITS);
+    	}
+    	
+    	for( int b = 0, sum = from; b < MSD_RADIX; b++) {
+    		next[b] = sum;
+    		sum    += end[b];
+    		end[b]  = sum;
+    	}
+    	
+    	// Rather than swapping, we take an element out and move it along its cycle into the bucket it belongs in,
+    	// picking up the element it displaces, so as in the q-sort only one temp element is needed.
+    	for( int b = 0; b < MSD_RADIX; b++) {
+    		while ( next[b] < end[b]) {
+    			double val = arr[next[b]];
+    			int    d   = digit(key(val), shift);
+    			
+    			while ( d != b) {
+    				double displaced = arr[next[d]];
+    				arr[next[d]++]   = val;
+    				val              = displaced;
+    				d                = digit(key(val), shift);
+    			}
+    			arr[next[b]++] = val;
+    		}
+    	}
+    	
+    	if ( shift == 0)
+    		return;
+    	
+    	for( int b = 0, low = from; b < MSD_RADIX; low = end[b++]) {
+    		int numElms = end[b] - low;
+    		
+    		if ( numElms <= SMALL_BUCKET)
+    			QSortDouble.sort(arr, low, end[b], true);
+    		else if ( scratch != null && numElms <= scratch.length)
+    			lsd(arr, low, end[b], scratch, shift);
+    		else
+    			msd(arr, low, end[b], Math.max(0, shift - MSD_BITS), scratch);
+    	}
+    }
+    ///////////////////////////////////////////////////////////////////////////
+    // Sorts arr into the same order as QSortFloat.sort(..).
+    // Below RADIX_THRESHOLD elements that is what we call, above it we radix sort with an N element scratch buffer.
+    public static void sort(float[] arr, boolean ascending){
+    	sort(arr, ascending, Integer.MAX_VALUE);
+    }
+    ///////////////////////////////////////////////////////////////////////////
+    // As above, but the scratch buffer is never more than maxScratchElms elements.
+    // With a smaller buffer we first do in-place MSD passes, until the buckets fit into the buffer.
+    // maxScratchElms = 0 gives a fully in-place radix sort.
+    public static void sort(float[] arr, boolean ascending, int maxScratchElms){
+    	
+    	if ( arr == null)
+    		return; // possibly could give a warning.
+    	
+    	if ( arr.length < RADIX_THRESHOLD) {
+    		QSortFloat.sort(arr, ascending);
+    		return;
+    	}
+    	
+    	// NaNs have no place in the key order, so as in QSortFloat they are moved to the end first.
+    	int end = arr.length;
+    	
+    	for( int i = end - 1; i >= 0; i--){
+    		if ( Float.isNaN(arr[i])) {
+    			float temp = arr[i];
+    			arr[i]     = arr[--end];
+    			arr[end]   = temp;
+    		}
+    	}
+    	
+    	if ( end <= maxScratchElms)
+    		lsd(arr, 0, end, new float[end], KEY_BITS_32);
+    	else {
+    		int     scratchElms = Math.min(maxScratchElms, end);
+    		float[] scratch     = ( scratchElms > SMALL_BUCKET ? new float[scratchElms] : null);
+    		
+    		msd(arr, 0, end, KEY_BITS_32 - MSD_BITS, scratch);
+    	}
+    	
+    	if ( !ascending)
+    		QSortFloat.reverseArr(arr);
+    }
+    ///////////////////////////////////////////////////////////////////////////
+    // As for doubles, but the 32 bit key is held in the low half of a long.
+    private static long key(float val){
+    	int bits = Float.floatToRawIntBits(val);
+    	return (bits ^ ((bits >> 31) | Integer.MIN_VALUE)) & 0xffffffffL;
+    }
+    ///////////////////////////////////////////////////////////////////////////
+    // LSD sorts arr between from inclusive and to exclusive, by the lowest numBits bits of the keys,
+    // bouncing between arr and scratch. 
+    private static void lsd(float[] arr, int from, int to, float[] scratch, int numBits){
+    	int     numElms   = to - from;
+    	int     digitBits = digitBits(numElms);
+    	int     numDigits = (numBits + digitBits - 1) / digitBits;
+    	int     mask      = (1 << digitBits) - 1;
+    	int[][] counts    = new int[numDigits][1 << digitBits];
+    	
+    	for( int i = from; i < to; i++) {   // one pass makes all of the histograms.
+    		long k = key(arr[i]);
+    		
+    		for( int d = 0; d < numDigits; d++)
+    			counts[d][(int) ((k >>> (d * digitBits)) & mask)]++;
+    	}
+    	
+    	float[] src    = arr;
+    	int     srcOff = from;
+    	float[] dst    = scratch;
+    	int     dstOff = 0;
+    	
+    	for( int d = 0; d < numDigits; d++) {
+    		int   shift  = d * digitBits;
+    		int[] offset = counts[d];
+    		
+    		if ( offset[(int) ((key(arr[from]) >>> shift) & mask)] == numElms)
+    			continue;  // all the keys have the same digit, so this pass wouldn't change anything.
+    		
+    		for( int b = 0, sum = dstOff; b < offset.length; b++) {
+    			int count = offset[b];
+    			offset[b] = sum;
+    			sum      += count;
+    		}
+    		
+    		for( int i = srcOff, srcEnd = srcOff + numElms; i < srcEnd; i++) {
+    			float val = src[i];
+    			dst[offset[(int) ((key(val) >>> shift) & mask)]++] = val;
+    		}
+    		
+    		float[] tempArr = src;    src    = dst;    dst    = tempArr;
+    		int     tempOff = srcOff; srcOff = dstOff; dstOff = tempOff;
+    	}
+    	
+    	if ( src != arr)
+    		System.arraycopy(src, srcOff, arr, from, numElms);
+    }
+    ///////////////////////////////////////////////////////////////////////////
+    // Sorts arr between from inclusive and to exclusive, whose keys all agree above bit (shift + MSD_BITS),
+    // with an in-place MSD pass on the digit at shift (an "American flag sort").
+    // Each bucket is then sorted by the lower bits, with lsd(..) if it fits in the scratch buffer,
+    // or else with another MSD pass.
+    private static void msd(float[] arr, int from, int to, int shift, float[] scratch){
+    	int[] next = new int[MSD_RADIX];   // where the next element of each bucket goes.
+    	int[] end  = new int[MSD_RADIX];
+    	
+    	while ( true) {
+    		for( int i = from; i < to; i++)
+    			end[digit(key(arr[i]), shift)]++;
+    		
+    		if ( end[digit(key(arr[from]), shift)] < to - from)
+    			break;
+    		
+    		// all the keys have the same digit here, so we go straight on to the next digit.
+    		if ( shift == 0)
+    			return;
+    		
+    		Arrays.fill(end, 0);
+    		shift = Math.max(0, shift - MSD_BITS);
+    	}
+    	
+    	for( int b = 0, sum = from; b < MSD_RADIX; b++) {
+    		next[b] = sum;
+    		sum    += end[b];
+    		end[b]  = sum;
+    	}
+    	
+    	// Rather than swapping, we take an element out and move it along its cycle into the bucket it belongs in,
+    	// picking up the element it displaces, so as in the q-sort only one temp element is needed.
+    	for( int b = 0; b < MSD_RADIX; b++) {
+    		while ( next[b] < end[b]) {
+    			float val = arr[next[b]];
+    			int   d   = digit(key(val), shift);
+    			
+    			while ( d != b) {
+    				float displaced = arr[next[d]];
+    				arr[next[d]++]  = val;
+    				val             = displaced;
+    				d               = digit(key(val), shift);
+    			}
+    			arr[next[b]++] = val;
+    		}
+    	}
+    	
+    	if ( shift == 0)
+    		return;
+    	
+    	for( int b = 0, low = from; b < MSD_RADIX; low = end[b++]) {
+    		int numElms = end[b] - low;
+    		
+    		if ( numElms <= SMALL_BUCKET)
+    			QSortFloat.sort(arr, low, end[b], true);
+    		else if ( scratch != null && numElms <= scratch.length)
+    			lsd(arr, low, end[b], scratch, shift);
+    		else
+    			msd(arr, low, end[b], Math.max(0, shift - MSD_BITS), scratch);
+    	}
+    }
+    ///////////////////////////////////////////////////////////////////////////
+    // Sorts arr into the same order as QSortLong.sort(..).
+    // Below RADIX_THRESHOLD elements that is what we call, above it we radix sort with an N element scratch buffer.
+    public static void sort(long[] arr, boolean ascending){
+    	sort(arr, ascending, Integer.MAX_VALUE);
+    }
+    ///////////////////////////////////////////////////////////////////////////
+    // As above, but the scratch buffer is never more than maxScratchElms elements.
+    // With a smaller buffer we first do in-place MSD passes, until the buckets fit into the buffer.
+    // maxScratchElms = 0 gives a fully in-place radix sort.
+    public static void sort(long[] arr, boolean ascending, int maxScratchElms){
+    	
+    	if ( arr == null)
+    		return; // possibly could give a warning.
+    	
+    	if ( arr.length < RADIX_THRESHOLD) {
+    		QSortLong.sort(arr, ascending);
+    		return;
+    	}
+    	
+    	int end = arr.length;
+    	if ( end <= maxScratchElms)
+    		lsd(arr, 0, end, new long[end], KEY_BITS_64);
+    	else {
+    		int    scratchElms = Math.min(maxScratchElms, end);
+    		long[] scratch     = ( scratchElms > SMALL_BUCKET ? new long[scratchElms] : null);
+    		
+    		msd(arr, 0, end, KEY_BITS_64 - MSD_BITS, scratch);
+    	}
+    	
+    	if ( !ascending)
+    		QSortLong.reverseArr(arr);
+    }
+    ///////////////////////////////////////////////////////////////////////////
+    // Flipping the sign bit orders the signed longs as unsigned keys.
+    private static long key(long val){
+    	return val ^ Long.MIN_VALUE;
+    }
+    ///////////////////////////////////////////////////////////////////////////
+    // LSD sorts arr between from inclusive and to exclusive, by the lowest numBits bits of the keys,
+    // bouncing between arr and scratch. 
+    private static void lsd(long[] arr, int from, int to, long[] scratch, int numBits){
+    	int     numElms   = to - from;
+    	int     digitBits = digitBits(numElms);
+    	int     numDigits = (numBits + digitBits - 1) / digitBits;
+    	int     mask      = (1 << digitBits) - 1;
+    	int[][] counts    = new int[numDigits][1 << digitBits];
+    	
+    	for( int i = from; i < to; i++) {   // one pass makes all of the histograms.
+    		long k = key(arr[i]);
+    		
+    		for( int d = 0; d < numDigits; d++)
+    			counts[d][(int) ((k >>> (d * digitBits)) & mask)]++;
+    	}
+    	
+    	long[] src    = arr;
+    	int    srcOff = from;
+    	long[] dst    = scratch;
+    	int    dstOff = 0;
+    	
+    	for( int d = 0; d < numDigits; d++) {
+    		int   shift  = d * digitBits;
+    		int[] offset = counts[d];
+    		
+    		if ( offset[(int) ((key(arr[from]) >>> shift) & mask)] == numElms)
+    			continue;  // all the keys have the same digit, so this pass wouldn't change anything.
+    		
+    		for( int b = 0, sum = dstOff; b < offset.length; b++) {
+    			int count = offset[b];
+    			offset[b] = sum;
+    			sum      += count;
+    		}
+    		
+    		for( int i = srcOff, srcEnd = srcOff + numElms; i < srcEnd; i++) {
+    			long val = src[i];
+    			dst[offset[(int) ((key(val) >>> shift) & mask)]++] = val;
+    		}
+    		
+    		long[] tempArr = src;    src    = dst;    dst    = tempArr;
+    		int    tempOff = srcOff; srcOff = dstOff; dstOff = tempOff;
+    	}
+    	
+    	if ( src != arr)
+    		System.arraycopy(src, srcOff, arr, from, numElms);
+    }
+    ///////////////////////////////////////////////////////////////////////////
+    // Sorts arr between from inclusive and to exclusive, whose keys all agree above bit (shift + MSD_BITS),
+    // with an in-place MSD pass on the digit at shift (an "American flag sort").
+    // Each bucket is then sorted by the lower bits, with lsd(..) if it fits in the scratch buffer,
+    // or else with another MSD pass.
+    private static void msd(long[] arr, int from, int to, int shift, long[] scratch){
+    	int[] next = new int[MSD_RADIX];   // where the next element of each bucket goes.
+    	int[] end  = new int[MSD_RADIX];
+    	
+    	while ( true) {
+    		for( int i = from; i < to; i++)
+    			end[digit(key(arr[i]), shift)]++;
+    		
+    		if ( end[digit(key(arr[from]), shift)] < to - from)
+    			break;
+    		
+    		// all the keys have the same digit here, so we go straight on to the next digit.
+    		if ( shift == 0)
+    			return;
+    		
+    		Arrays.fill(end, 0);
+    		shift = Math.max(0, shift - MSD_BITS);
+    	}
+    	
+    	for( int b = 0, sum = from; b < MSD_RADIX; b++) {
+    		next[b] = sum;
+    		sum    += end[b];
+    		end[b]  = sum;
+    	}
+    	
+    	// Rather than swapping, we take an element out and move it along its cycle into the bucket it belongs in,
+    	// picking up the element it displaces, so as in the q-sort only one temp element is needed.
+    	for( int b = 0; b < MSD_RADIX; b++) {
+    		while ( next[b] < end[b]) {
+    			long val = arr[next[b]];
+    			int  d   = digit(key(val), shift);
+    			
+    			while ( d != b) {
+    				long displaced = arr[next[d]];
+    				arr[next[d]++] = val;
+    				val            = displaced;
+    				d              = digit(key(val), shift);
+    			}
+    			arr[next[b]++] = val;
+    		}
+    	}
+    	
+    	if ( shift == 0)
+    		return;
+    	
+    	for( int b = 0, low = from; b < MSD_RADIX; low = end[b++]) {
+    		int numElms = end[b] - low;
+    		
+    		if ( numElms <= SMALL_BUCKET)
+    			QSortLong.sort(arr, low, end[b], true);
+    		else if ( scratch != null && numElms <= scratch.length)
+    			lsd(arr, low, end[b], scratch, shift);
+    		else
+    			msd(arr, low, end[b], Math.max(0, shift - MSD_BITS), scratch);
+    	}
+    }
+    ///////////////////////////////////////////////////////////////////////////
+    // Sorts arr into the same order as QSortInt.sort(..).
+    // Below RADIX_THRESHOLD elements that is what we call, above it we radix sort with an N element scratch buffer.
+    public static void sort(int[] arr, boolean ascending){
+    	sort(arr, ascending, Integer.MAX_VALUE);
+    }
+    ///////////////////////////////////////////////////////////////////////////
+    // As above, but the scratch buffer is never more than maxScratchElms elements.
+    // With a smaller buffer we first do in-place MSD passes, until the buckets fit into the buffer.
+    // maxScratchElms = 0 gives a fully in-place radix sort.
+    public static void sort(int[] arr, boolean ascending, int maxScratchElms){
+    	
+    	if ( arr == null)
+    		return; // possibly could give a warning.
+    	
+    	if ( arr.length < RADIX_THRESHOLD) {
+    		QSortInt.sort(arr, ascending);
+    		return;
+    	}
+    	
+    	int end = arr.length;
+    	if ( end <= maxScratchElms)
+    		lsd(arr, 0, end, new int[end], KEY_BITS_32);
+    	else {
+    		int   scratchElms = Math.min(maxScratchElms, end);
+    		int[] scratch     = ( scratchElms > SMALL_BUCKET ? new int[scratchElms] : null);
+    		
+    		msd(arr, 0, end, KEY_BITS_32 - MSD_BITS, scratch);
+    	}
+    	
+    	if ( !ascending)
+    		QSortInt.reverseArr(arr);
+    }
+    ///////////////////////////////////////////////////////////////////////////
+    // Flipping the sign bit orders the signed ints as unsigned keys, held in the low half of a long.
+    private static long key(int val){
+    	return (val ^ Integer.MIN_VALUE) & 0xffffffffL;
+    }
+    ///////////////////////////////////////////////////////////////////////////
+    // LSD sorts arr between from inclusive and to exclusive, by the lowest numBits bits of the keys,
+    // bouncing between arr and scratch. 
+    private static void lsd(int[] arr, int from, int to, int[] scratch, int numBits){
+    	int     numElms   = to - from;
+    	int     digitBits = digitBits(numElms);
+    	int     numDigits = (numBits + digitBits - 1) / digitBits;
+    	int     mask      = (1 << digitBits) - 1;
+    	int[][] counts    = new int[numDigits][1 << digitBits];
+    	
+    	for( int i = from; i < to; i++) {   // one pass makes all of the histograms.
+    		long k = key(arr[i]);
+    		
+    		for( int d = 0; d < numDigits; d++)
+    			counts[d][(int) ((k >>> (d * digitBits)) & mask)]++;
+    	}
+    	
+    	int[] src    = arr;
+    	int   srcOff = from;
+    	int[] dst    = scratch;
+    	int   dstOff = 0;
+    	
+    	for( int d = 0; d < numDigits; d++) {
+    		int   shift  = d * digitBits;
+    		int[] offset = counts[d];
+    		
+    		if ( offset[(int) ((key(arr[from]) >>> shift) & mask)] == numElms)
+    			continue;  // all the keys have the same digit, so this pass wouldn't change anything.
+    		
+    		for( int b = 0, sum = dstOff; b < offset.length; b++) {
+    			int count = offset[b];
+    			offset[b] = sum;
+    			sum      += count;
+    		}
+    		
+    		for( int i = srcOff, srcEnd = srcOff + numElms; i < srcEnd; i++) {
+    			int val = src[i];
+    			dst[offset[(int) ((key(val) >>> shift) & mask)]++] = val;
+    		}
+    		
+    		int[] tempArr = src;    src    = dst;    dst    = tempArr;
+    		int   tempOff = srcOff; srcOff = dstOff; dstOff = tempOff;
+    	}
+    	
+    	if ( src != arr)
+    		System.arraycopy(src, srcOff, arr, from, numElms);
+    }
+    ///////////////////////////////////////////////////////////////////////////
+    // Sorts arr between from inclusive and to exclusive, whose keys all agree above bit (shift + MSD_BITS),
+    // with an in-place MSD pass on the digit at shift (an "American flag sort").
+    // Each bucket is then sorted by the lower bits, with lsd(..) if it fits in the scratch buffer,
+    // or else with another MSD pass.
+    private static void msd(int[] arr, int from, int to, int shift, int[] scratch){
+    	int[] next = new int[MSD_RADIX];   // where the next element of each bucket goes.
+    	int[] end  = new int[MSD_RADIX];
+    	
+    	while ( true) {
+    		for( int i = from; i < to; i++)
+    			end[digit(key(arr[i]), shift)]++;
+    		
+    		if ( end[digit(key(arr[from]), shift)] < to - from)
+    			break;
+    		
+    		// all the keys have the same digit here, so we go straight on to the next digit.
+    		if ( shift == 0)
+    			return;
+    		
+    		Arrays.fill(end, 0);
+    		shift = Math.max(0, shift - MSD_BITS);
+    	}
+    	
+    	for( int b = 0, sum = from; b < MSD_RADIX; b++) {
+    		next[b] = sum;
+    		sum    += end[b];
+    		end[b]  = sum;
+    	}
+    	
+    	// Rather than swapping, we take an element out and move it along its cycle into the bucket it belongs in,
+    	// picking up the element it displaces, so as in the q-sort only one temp element is needed.
+    	for( int b = 0; b < MSD_RADIX; b++) {
+    		while ( next[b] < end[b]) {
+    			int val = arr[next[b]];
+    			int d   = digit(key(val), shift);
+    			
+    			while ( d != b) {
+    				int displaced  = arr[next[d]];
+    				arr[next[d]++] = val;
+    				val            = displaced;
+    				d              = digit(key(val), shift);
+    			}
+    			arr[next[b]++] = val;
+    		}
+    	}
+    	
+    	if ( shift == 0)
+    		return;
+    	
+    	for( int b = 0, low = from; b < MSD_RADIX; low = end[b++]) {
+    		int numElms = end[b] - low;
+    		
+    		if ( numElms <= SMALL_BUCKET)
+    			QSortInt.sort(arr, low, end[b], true);
+    		else if ( scratch != null && numElms <= scratch.length)
+    			lsd(arr, low, end[b], scratch, shift);
+    		else
+    			msd(arr, low, end[b], Math.max(0, shift - MSD_BITS), scratch);
+    	}
+    }
+    ///////////////////////////////////////////////////////////////////////////
+    // The number of bits per LSD digit, for sorting numElms elements.
+    // Bigger digits mean fewer passes, but only pay off when there are enough elements to fill their counts.
+    private static int digitBits(int numElms){
+    	
+    	if ( numElms >= 1 << 22)
+    		return 16;
+    	else if ( numElms >= 1 << 14)
+    		return 11;
+    	else
+    		return 8;
+    }
+    ///////////////////////////////////////////////////////////////////////////
+    private static int digit(long key, int shift){
+    	return (int) ((key >>> shift) & (MSD_RADIX - 1));
+    }
+    ///////////////////////////////////////////////////////////////////////////
+    private RadixSort(){
+    }
+    ///////////////////////////////////////////////////////////////////////////
+}
@@ -0,0 +1,430 @@
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+//////////////////////////////////////////////////////////////
+/*
+ *  A more careful version of SortBenchmarking.run().
+ *  That times a single cold run on one random array, which mostly measures the JIT.
+ *  Here for every combination of sorter, distribution and size we:
+ *    - run warm up iterations, which are thrown away, and then the measured iterations,
+ *    - in each iteration sort a fresh copy of the same input as many times as fit in the iteration time,
+ *    - report the throughput (sorts per second and nano secs per element),
+ *      the bytes allocated per sort (from the thread's allocation counter, so it's just the sorter's own garbage)
+ *      and, for the object sorts, the number of calls to compareTo(.) for one sort.
+ *
+ *  Usage: java SortBenchmarkSuite [maxSize] [warmupIters] [measuredIters] [iterMillis]
+ *  The sizes go up in powers of ten from 10 to maxSize (by default 10^6).
+ *  At 10^8 the TestObj arrays need several GB of heap, so give the JVM a big enough -Xmx.
+ *
+ *  Or: java SortBenchmarkSuite cutoffs [maxSize] [warmupIters] [measuredIters] [iterMillis]
+ *  which times QSort and QSortDouble for each of CUTOFFS as the small sort cutoff (see QSort.setSmallSortCutoff(..)),
+ *  on the random and few unique distributions.
+ *
+ *  Or: java -XX:-DoEscapeAnalysis SortBenchmarkSuite batchalloc
+ *  which checks that the batch sorts, QSort.sortAllAsync(..) and QSortDouble.sortAllAsync(..), allocate nothing
+ *  per array once warm, and exits with status 1 if either does. Turning off escape analysis keeps the JIT
+ *  from removing garbage that never leaves the sort, which would otherwise hide it on some JVMs and not others.
+ *
+ *  Each case runs in the same JVM as the others, so for numbers that are going to be compared across
+ *  builds it's best to run the cases of interest on their own, with the same JVM flags each time.
+ */
+///////////////////////////////////////////////////////////////
+public class SortBenchmarkSuite {
+
+	private static int  m_warmupIters   = 3;
+	private static int  m_measuredIters = 5;
+	private static long m_iterNanos     = 200_000_000L;
+	private static long m_seed          = 42;
+
+	// the small sort cutoffs tried by runCutoffs(..), where 0 means always partition.
+	private static final int[] CUTOFFS = { 0, 4, 8, 12, 16, 24, 32, 48};
+
+	// for runBatchAllocations(), the number of arrays in the smaller of the two batches, and each array's size.
+	private static final int BATCH_ARRS     = 2000;
+	private static final int BATCH_ARR_ELMS = 32;
+
+	// the input distributions.
+	enum Distribution {
+		RANDOM,
+		SORTED,
+		REVERSED,
+		ORGAN_PIPE,     // ascending to the middle, then descending.
+		SAWTOOTH,       // many short ascending runs.
+		FEW_UNIQUE,     // only 8 distinct values.
+		NEARLY_SORTED,  // sorted, except for 1% of the elements which are swapped with a random partner.
+		ADVERSARIAL     // built against QSort's pivot choice, see adversarialArr(..)
+	}
+
+	// the sorters being compared.
+	// The object sorts are all on TestObj's, and the primitive ones on doubles.
+	enum Sorter {
+		QSORT,
+		QSORT_DUAL_PIVOT,
+		STABLE_SORT,
+		ARRAYS_SORT_OBJ,
+		QSORT_DOUBLE,
+		QSORT_DOUBLE_DUAL_PIVOT,
+		RADIX_SORT_DOUBLE,
+		ARRAYS_SORT_DOUBLE
+	}
+
+	// what we measured for one case.
+	private static class Result {
+		double opsPerSec;
+		double nanosPerElm;
+		long   bytesPerOp;
+		long   comparisons = -1;  // -1 if not counted.
+	}
+
+    ///////////////////////////////////////////////////////
+	public static void main(String[] args){
+
+		if ( args.length > 0 && args[0].equals("batchalloc")) {
+			if ( ! runBatchAllocations())
+				System.exit(1);
+			return;
+		}
+
+		int     maxSize = 1_000_000;
+		boolean cutoffs = ( args.length > 0 && args[0].equals("cutoffs"));
+
+		if ( cutoffs)
+			args = Arrays.copyOfRange(args, 1, args.length);
+
+		if ( args.length > 0) maxSize         = Integer.parseInt(args[0]);
+		if ( args.length > 1) m_warmupIters   = Integer.parseInt(args[1]);
+		if ( args.length > 2) m_measuredIters = Integer.parseInt(args[2]);
+		if ( args.length > 3) m_iterNanos     = Long.parseLong(args[3]) * 1_000_000L;
+
+		if ( cutoffs)
+			runCutoffs(maxSize);
+		else
+			run(maxSize);
+	}
+    ///////////////////////////////////////////////////////
+	public static void run(int maxSize){
+
+		System.out.format("%-20s %-14s %12s %14s %10s %12s %14s%n",
+				"Sorter", "Distribution", "Num elms", "Sorts/sec", "ns/elm", "Bytes/sort", "Comparisons");
+
+		for( long size = 10; size <= maxSize; size *= 10) {
+			for( Distribution dist : Distribution.values()) {
+
+				int[] vals = generate(dist, (int) size, new Random(m_seed));
+
+				for( Sorter sorter : Sorter.values()) {
+					Result res = benchmark(sorter, vals, -1);
+
+					System.out.format("%-20s %-14s %,12d %,14.1f %,10.2f %,12d %14s%n",
+							sorter, dist, size, res.opsPerSec, res.nanosPerElm, res.bytesPerOp,
+							res.comparisons < 0 ? "-" : String.format("%,d", res.comparisons));
+				}
+			}
+		}
+	}
+    ///////////////////////////////////////////////////////
+	// Times each of CUTOFFS as the small sort cutoff, to find the best default for this CPU and JVM.
+	// Each cutoff is passed in to the sorts, so the default cutoffs are left alone.
+	public static void runCutoffs(int maxSize){
+		Sorter[] sorters = { Sorter.QSORT, Sorter.QSORT_DOUBLE};
+
+		System.out.format("%-20s %-14s %12s %8s %14s %10s %14s%n",
+				"Sorter", "Distribution", "Num elms", "Cutoff", "Sorts/sec", "ns/elm", "Comparisons");
+
+		for( long size = 10; size <= maxSize; size *= 10) {
+			for( Distribution dist : new Distribution[]{ Distribution.RANDOM, Distribution.FEW_UNIQUE}) {
+
+				int[] vals = generate(dist, (int) size, new Random(m_seed));
+
+				for( Sorter sorter : sorters) {
+					for( int cutoff : CUTOFFS) {
+						Result res = benchmark(sorter, vals, cutoff);
+
+						System.out.format("%-20s %-14s %,12d %8d %,14.1f %,10.2f %14s%n",
+								sorter, dist, size, cutoff, res.opsPerSec, res.nanosPerElm,
+								res.comparisons < 0 ? "-" : String.format("%,d", res.comparisons));
+					}
+				}
+			}
+		}
+	}
+    ///////////////////////////////////////////////////////
+	// Measures the bytes the batch sorts allocate per array, which should be none:
+	// each thread's sorter is reused, and SortInstrumentation.start(..) allocates nothing while it's off.
+	// The batches are sorted on this thread, by giving sortAllAsync(..) an executor that runs each chunk straight away,
+	// so that this thread's allocation counter sees all of it. The chunks, futures and so on are per batch,
+	// and as there are about as many chunks for both sizes of batch, the difference between sorting BATCH_ARRS arrays
+	// and twice as many is what the extra arrays cost. After warming up, we take the least of several rounds for each,
+	// to leave out the JIT's own garbage.
+	// Returns whether both QSort and QSortDouble came out below a byte per array.
+	public static boolean runBatchAllocations(){
+		Random      randGen  = new Random(m_seed);
+		TestObj[]   origObjs = new TestObj[BATCH_ARR_ELMS];
+		double[]    origDbls = new double[BATCH_ARR_ELMS];
+		TestObj[][] objs     = new TestObj[2 * BATCH_ARRS][BATCH_ARR_ELMS];
+		double[][]  dbls     = new double[2 * BATCH_ARRS][BATCH_ARR_ELMS];
+
+		for( int i = 0; i < BATCH_ARR_ELMS; i++) {
+			origObjs[i] = new TestObj(randGen.nextInt());
+			origDbls[i] = randGen.nextDouble();
+		}
+
+		TestObj[][]    smallObjs = Arrays.copyOf(objs, BATCH_ARRS);
+		List<double[]> smallDbls = Arrays.asList(dbls).subList(0, BATCH_ARRS);
+		List<double[]> allDbls   = Arrays.asList(dbls);
+		long[]         least     = { Long.MAX_VALUE, Long.MAX_VALUE, Long.MAX_VALUE, Long.MAX_VALUE};
+
+		for( int round = 0; round < 200; round++) {
+			long[] bytes = { batchAllocatedBytes(smallObjs, origObjs, null, null),
+			                 batchAllocatedBytes(objs, origObjs, null, null),
+			                 batchAllocatedBytes(null, null, smallDbls, origDbls),
+			                 batchAllocatedBytes(null, null, allDbls, origDbls)};
+
+			if ( round >= 100)  // the first rounds are the warm up.
+				for( int i = 0; i < bytes.length; i++)
+					least[i] = Math.min(least[i], bytes[i]);
+		}
+
+		double objBytes = (double) (least[1] - least[0]) / BATCH_ARRS;
+		double dblBytes = (double) (least[3] - least[2]) / BATCH_ARRS;
+
+		System.out.format("%-20s %,12.2f bytes/array%n", "QSort.sortAll",       objBytes);
+		System.out.format("%-20s %,12.2f bytes/array%n", "QSortDouble.sortAll", dblBytes);
+
+		return objBytes < 1 && dblBytes < 1;
+	}
+    ///////////////////////////////////////////////////////
+	// Refills the batch from the original, either objs or dbls, and returns the bytes this thread allocates sorting it.
+	private static long batchAllocatedBytes(TestObj[][] objs, TestObj[] origObjs, List<double[]> dbls, double[] origDbls){
+
+		if ( objs != null)
+			for( TestObj[] arr : objs)
+				System.arraycopy(origObjs, 0, arr, 0, arr.length);
+		else
+			for( double[] arr : dbls)
+				System.arraycopy(origDbls, 0, arr, 0, arr.length);
+
+		long bytesBefore = allocatedBytes();
+
+		if ( objs != null)
+			QSort.sortAllAsync(objs, true, Runnable::run).join();
+		else
+			QSortDouble.sortAllAsync(dbls, true, Runnable::run).join();
+
+		return allocatedBytes() - bytesBefore;
+	}
+    ///////////////////////////////////////////////////////
+	// Every sorter of a given case gets exactly the same input values.
+	// cutoff is the small sort cutoff for QSORT or QSORT_DOUBLE, or -1 for the default, see sortOnce(..).
+	private static Result benchmark(Sorter sorter, int[] vals, int cutoff){
+		boolean   objSort  = (sorter == Sorter.QSORT || sorter == Sorter.QSORT_DUAL_PIVOT
+		                        || sorter == Sorter.STABLE_SORT || sorter == Sorter.ARRAYS_SORT_OBJ);
+		TestObj[] origObjs = null;
+		TestObj[] objs     = null;
+		double[]  origDbls = null;
+		double[]  dbls     = null;
+
+		if ( objSort) {
+			origObjs = new TestObj[vals.length];
+			objs     = new TestObj[vals.length];
+
+			for( int i = 0; i < vals.length; i++)
+				origObjs[i] = new TestObj(vals[i]);
+		} else {
+			origDbls = new double[vals.length];
+			dbls     = new double[vals.length];
+
+			for( int i = 0; i < vals.length; i++)
+				origDbls[i] = vals[i];
+		}
+
+		for( int iter = 0; iter < m_warmupIters; iter++)
+			runIteration(sorter, cutoff, origObjs, objs, origDbls, dbls);
+
+		long ops   = 0;
+		long nanos = 0;
+		long bytes = 0;
+
+		for( int iter = 0; iter < m_measuredIters; iter++) {
+			long[] iterRes = runIteration(sorter, cutoff, origObjs, objs, origDbls, dbls);
+			ops   += iterRes[0];
+			nanos += iterRes[1];
+			bytes += iterRes[2];
+		}
+
+		Result res      = new Result();
+		res.opsPerSec   = ops * 1e9 / nanos;
+		res.nanosPerElm = (double) nanos / ops / Math.max(1, vals.length);
+		res.bytesPerOp  = bytes / ops;
+
+		if ( objSort) {
+			// counted on one separate sort, once the code is warm.
+			System.arraycopy(origObjs, 0, objs, 0, objs.length);
+			SortBenchmarking.resetCompareCounter();
+			sortOnce(sorter, cutoff, objs, dbls);
+			res.comparisons = SortBenchmarking.getCompareCounter();
+		}
+		return res;
+	}
+    ///////////////////////////////////////////////////////
+	// Sorts fresh copies of the input until the iteration time is up.
+	// Only the sorting is timed, not the copying. The working array is allocated up front
+	// and the copying is an arraycopy, so the bytes allocated during the iteration are only from the sorter.
+	// returns { num sorts, nano secs, bytes allocated }
+	private static long[] runIteration(Sorter sorter, int cutoff, TestObj[] origObjs, TestObj[] objs, double[] origDbls, double[] dbls){
+		long ops         = 0;
+		long nanos       = 0;
+		long bytesBefore = allocatedBytes();
+
+		do {
+			if ( objs != null)
+				System.arraycopy(origObjs, 0, objs, 0, objs.length);
+			else
+				System.arraycopy(origDbls, 0, dbls, 0, dbls.length);
+
+			long start = System.nanoTime();
+
+			sortOnce(sorter, cutoff, objs, dbls);
+
+			nanos += System.nanoTime() - start;
+			ops++;
+		} while ( nanos < m_iterNanos);
+
+		return new long[] { ops, nanos, allocatedBytes() - bytesBefore };
+	}
+    ///////////////////////////////////////////////////////
+	private static void sortOnce(Sorter sorter, int cutoff, TestObj[] objs, double[] dbls){
+
+		if ( cutoff >= 0) {  // only runCutoffs(..) passes a cutoff in, for QSORT and QSORT_DOUBLE.
+			if ( sorter == Sorter.QSORT)
+				QSort.sort(objs, true, PartitionScheme.SINGLE_PIVOT, cutoff);
+			else
+				QSortDouble.sort(dbls, true, PartitionScheme.SINGLE_PIVOT, cutoff);
+			return;
+		}
+
+		switch ( sorter) {
+			case QSORT:                   QSort.sort(objs, true);                                   break;
+			case QSORT_DUAL_PIVOT:        QSort.sort(objs, true, PartitionScheme.DUAL_PIVOT);       break;
+			case STABLE_SORT:             StableSort.sort(objs, true);                              break;
+			case ARRAYS_SORT_OBJ:         Arrays.sort(objs);                                        break;
+			case QSORT_DOUBLE:            QSortDouble.sort(dbls, true);                             break;
+			case QSORT_DOUBLE_DUAL_PIVOT: QSortDouble.sort(dbls, true, PartitionScheme.DUAL_PIVOT); break;
+			case RADIX_SORT_DOUBLE:       RadixSort.sort(dbls, true);                               break;
+			case ARRAYS_SORT_DOUBLE:      Arrays.sort(dbls);                                        break;
+		}
+	}
+    ///////////////////////////////////////////////////////
+	// The bytes allocated so far by this thread, or 0 if the JVM can't tell us.
+	private static long allocatedBytes(){
+		java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+
+		if ( bean instanceof com.sun.management.ThreadMXBean)
+			return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+
+		return 0;
+	}
+    ///////////////////////////////////////////////////////
+	private static int[] generate(Distribution dist, int numElms, Random randGen){
+		int[] arr = new int[numElms];
+
+		switch ( dist) {
+			case RANDOM:
+				for( int i = 0; i < numElms; i++)
+					arr[i] = randGen.nextInt(Math.max(1, numElms * 2));
+				break;
+
+			case SORTED:
+				for( int i = 0; i < numElms; i++)
+					arr[i] = i;
+				break;
+
+			case REVERSED:
+				for( int i = 0; i < numElms; i++)
+					arr[i] = numElms - i;
+				break;
+
+			case ORGAN_PIPE:
+				for( int i = 0; i < numElms; i++)
+					arr[i] = Math.min(i, numElms - i);
+				break;
+
+			case SAWTOOTH:
+				int toothLen = Math.max(2, (int) Math.sqrt(numElms));
+
+				for( int i = 0; i < numElms; i++)
+					arr[i] = i % toothLen;
+				break;
+
+			case FEW_UNIQUE:
+				for( int i = 0; i < numElms; i++)
+					arr[i] = randGen.nextInt(8);
+				break;
+
+			case NEARLY_SORTED:
+				for( int i = 0; i < numElms; i++)
+					arr[i] = i;
+
+				for( int n = 0; n < numElms / 100; n++) {
+					int i  = randGen.nextInt(numElms);
+					int j  = randGen.nextInt(numElms);
+					int t  = arr[i];
+					arr[i] = arr[j];
+					arr[j] = t;
+				}
+				break;
+
+			case ADVERSARIAL:
+				arr = adversarialArr(numElms);
+				break;
+		}
+		return arr;
+	}
+    ///////////////////////////////////////////////////////
+	// McIlroy's "A Killer Adversary for Quicksort".
+	// We sort the indices with a comparator which decides the values lazily:
+	// every value starts out as 'gas' (bigger than anything decided so far) and is only frozen
+	// when the sort compares two gas values, in which case we freeze the one that looks like the pivot.
+	// That way the pivots end up being the smallest remaining values, and the values
+	// that were frozen are an input which gives QSort's pivot choice its worst case.
+	// (QSort falls back to a heap sort when that happens, so this measures how much that costs.)
+	private static int[] adversarialArr(int numElms){
+		final int[]   val       = new int[numElms];
+		final int     gas       = numElms;
+		final int[]   state     = { 0, -1 };  // { num frozen, candidate pivot }
+		Integer[]     indices   = new Integer[numElms];
+
+		Arrays.fill(val, gas);
+
+		for( int i = 0; i < numElms; i++)
+			indices[i] = i;
+
+		Comparator<Integer> adversary = (x, y) -> {
+			if ( val[x] == gas && val[y] == gas) {
+				if ( x == state[1])
+					val[x] = state[0]++;
+				else
+					val[y] = state[0]++;
+			}
+
+			if ( val[x] == gas)
+				state[1] = x;
+			else if ( val[y] == gas)
+				state[1] = y;
+
+			return Integer.compare(val[x], val[y]);
+		};
+
+		QSort.sort(indices, adversary);
+
+		for( int i = 0; i < numElms; i++) {
+			if ( val[i] == gas)
+				val[i] = state[0]++;
+		}
+		return val;
+	}
+    ///////////////////////////////////////////////////////
+}
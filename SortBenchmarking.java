@@ -16,6 +16,8 @@ import java.util.Random;
  *  Already Sorted            9,999              9,999
  *  Sorted in wrong dir      77,231              9,999
  *  
+ *  For repeatable numbers across sizes and distributions, with warm up, see SortBenchmarkSuite.
+ *  
  *  
  */
 ///////////////////////////////////////////////////////////////
@@ -124,5 +126,13 @@ public class SortBenchmarking {
     public static void incrementCompareCounter(){
     	m_compareCounter++;
     }
+    ///////////////////////////////////////////////////////
+    public static void resetCompareCounter(){
+    	m_compareCounter = 0;
+    }
+    ///////////////////////////////////////////////////////
+    public static long getCompareCounter(){
+    	return m_compareCounter;
+    }
     ///////////////////////////////////////////////////////	
 }
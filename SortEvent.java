@@ -0,0 +1,35 @@
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+// The JFR event committed for each instrumented sort, with the same numbers as SortStats.
+// It is off by default, so enable "pk.Sort" in the recording's .jfc settings,
+// or with recording.enable("pk.Sort") when starting a jdk.jfr.Recording from code.
+@Name("pk.Sort")
+@Label("Sort")
+@Category("PK QSort")
+@Description("One call of QSort.sort(..) or QSortDouble.sort(..)")
+@Enabled(false)
+final class SortEvent extends Event {
+
+	@Label("Sorter")
+	String sorter;
+
+	@Label("Number of Elements")
+	int numElms;
+
+	@Label("Comparisons")
+	long comparisons;
+
+	@Label("Moves")
+	long moves;
+
+	@Label("Max Depth")
+	int maxDepth;
+
+	@Label("Heap Sort Fallbacks")
+	int heapSortFallbacks;
+}
@@ -0,0 +1,86 @@
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import jdk.jfr.EventType;
+
+// The opt-in instrumentation of QSort.sort(..) and QSortDouble.sort(..),
+// including the String[] and Double[], Long[] and Integer[] arrays that QSort.sort(..) hands over to StringSort and BoxedSort.
+// A sort is instrumented while there is at least one SortListener registered here,
+// or while the pk.Sort JFR event (see SortEvent) is enabled in a running recording.
+//
+// When neither is the case, start(..) returns null, without allocating anything, and the sorters run their usual code,
+// so the cost is two flag checks per sort call and one null check per partition.
+// (The partition loops do keep a count of their moves, but that is just a local variable.)
+// The listeners can be added and removed from any thread, and sorts on different threads
+// each get their own SortStats.
+public final class SortInstrumentation {
+
+	private static final List<SortListener> m_listeners = new CopyOnWriteArrayList<SortListener>();
+
+	// Whether m_listeners is non-empty, kept in step by addListener(..) and removeListener(..),
+	// so that start(..) reads a single flag rather than the list.
+	private static volatile boolean m_hasListeners;
+
+	// SortEvent's type, whose isEnabled() tells us whether a recording wants pk.Sort events,
+	// without creating an event to ask. null if JFR can't register the event.
+	private static final EventType m_eventType = sortEventType();
+
+    ///////////////////////////////////////////////////////////////////////////
+	public static synchronized void addListener(SortListener listener){
+		m_listeners.add(listener);
+		m_hasListeners = true;
+	}
+    ///////////////////////////////////////////////////////////////////////////
+	public static synchronized void removeListener(SortListener listener){
+		m_listeners.remove(listener);
+		m_hasListeners = !m_listeners.isEmpty();
+	}
+    ///////////////////////////////////////////////////////////////////////////
+	// Called by a sorter at the start of a sort of numElms elements.
+	// Returns the SortStats to record into, or null if nobody is interested.
+	static SortStats start(String sorter, int numElms){
+
+		if ( ! m_hasListeners && (m_eventType == null || !m_eventType.isEnabled()))
+			return null;
+
+		SortEvent event = new SortEvent();
+		event.begin();
+		return new SortStats(sorter, numElms, event);
+	}
+    ///////////////////////////////////////////////////////////////////////////
+	// Called by a sorter once it has finished, with what start(..) returned.
+	static void finish(SortStats stats){
+
+		if ( stats == null)
+			return;
+
+		stats.finished();
+
+		SortEvent event = stats.getEvent();
+
+		if ( event.shouldCommit()) {
+			event.sorter            = stats.getSorter();
+			event.numElms           = stats.getNumElms();
+			event.comparisons       = stats.getComparisons();
+			event.moves             = stats.getMoves();
+			event.maxDepth          = stats.getMaxDepth();
+			event.heapSortFallbacks = stats.getHeapSortFallbacks();
+			event.commit();
+		}
+
+		for( SortListener listener : m_listeners)
+			listener.sortFinished(stats);
+	}
+    ///////////////////////////////////////////////////////////////////////////
+	private static EventType sortEventType(){
+
+		try {
+			return EventType.getEventType(SortEvent.class);
+		} catch ( IllegalStateException | SecurityException e) {
+			return null;  // then only listeners can turn the instrumentation on.
+		}
+	}
+    ///////////////////////////////////////////////////////////////////////////
+	private SortInstrumentation(){
+	}
+}
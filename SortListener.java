@@ -0,0 +1,7 @@
+// Receives the statistics of each instrumented sort, see SortInstrumentation.addListener(..).
+// It is called on the thread that did the sorting, once the sort has finished,
+// so it should be quick and must be safe to call from several threads at once.
+public interface SortListener {
+
+	void sortFinished(SortStats stats);
+}
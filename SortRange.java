@@ -0,0 +1,20 @@
+// Argument checks shared by the sort(arr, from, to, ascending) methods,
+// which sort from index 'from' inclusive to 'to' exclusive.
+final class SortRange {
+	
+    ///////////////////////////////////////////////////////////////////////////
+    static void check(int length, int from, int to){
+    	
+    	if ( from > to)
+    		throw new IllegalArgumentException("from(" + from + ") > to(" + to + ")");
+    	
+    	if ( from < 0)
+    		throw new ArrayIndexOutOfBoundsException(from);
+    	
+    	if ( to > length)
+    		throw new ArrayIndexOutOfBoundsException(to);
+    }
+    ///////////////////////////////////////////////////////////////////////////
+    private SortRange(){
+    }
+}
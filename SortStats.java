@@ -0,0 +1,130 @@
+import java.util.Arrays;
+import java.util.Comparator;
+
+// What one call of an instrumented sort did, as passed to SortListener.sortFinished(..).
+// Each sort call gets its own SortStats, which only the sorting thread writes to,
+// so none of the counters need to be atomic.
+//
+// The comparisons are exact for QSort, where we count the calls to the comparator.
+// QSortDouble compares primitives inline, so there we count the comparisons of the partition scans,
+// which we know from the scan lengths (close, but not exact, for PartitionScheme.DUAL_PIVOT),
+// and leave out the few made choosing each pivot.
+// The moves are the element writes made by the partitioning. A heap sort fallback's work isn't
+// counted in either, as it should be rare, but each fallback is counted in getHeapSortFallbacks().
+// Nor are the moves (or, in QSortDouble, the comparisons) of the insertion sorts of the smallest sub-arrays.
+public final class SortStats {
+
+	// the imbalance histogram has this many buckets, each covering 5% of the smaller side's share.
+	public static final int NUM_IMBALANCE_BUCKETS = 10;
+
+	private final String    m_sorter;
+	private final int       m_numElms;
+	private final SortEvent m_event;
+	private final long      m_startNanos;
+	private long            m_nanos;
+	private long            m_comparisons;
+	private long            m_moves;
+	private int             m_depthBudget;
+	private int             m_maxDepth;
+	private int             m_heapSortFallbacks;
+	private final long[]    m_imbalanceHistogram = new long[NUM_IMBALANCE_BUCKETS];
+
+    ///////////////////////////////////////////////////////////////////////////
+	SortStats(String sorter, int numElms, SortEvent event){
+		m_sorter     = sorter;
+		m_numElms    = numElms;
+		m_event      = event;
+		m_startNanos = System.nanoTime();
+	}
+    ///////////////////////////////////////////////////////////////////////////
+	// e.g. "QSort" or "QSortDouble"
+	public String getSorter(){
+		return m_sorter;
+	}
+    ///////////////////////////////////////////////////////////////////////////
+	public int getNumElms(){
+		return m_numElms;
+	}
+    ///////////////////////////////////////////////////////////////////////////
+	// The wall time of the whole call.
+	public long getNanos(){
+		return m_nanos;
+	}
+    ///////////////////////////////////////////////////////////////////////////
+	public long getComparisons(){
+		return m_comparisons;
+	}
+    ///////////////////////////////////////////////////////////////////////////
+	public long getMoves(){
+		return m_moves;
+	}
+    ///////////////////////////////////////////////////////////////////////////
+	// The deepest level of partitioning reached, where partitioning the whole array is level 1.
+	// Compare it with 2 * log2(N), beyond which the sort falls back to a heap sort.
+	public int getMaxDepth(){
+		return m_maxDepth;
+	}
+    ///////////////////////////////////////////////////////////////////////////
+	public int getHeapSortFallbacks(){
+		return m_heapSortFallbacks;
+	}
+    ///////////////////////////////////////////////////////////////////////////
+	// Element i is the number of partitions whose smaller side held from 5*i% up to 5*(i+1)% of the elements,
+	// so good pivots land in the last buckets and bad ones in the first.
+	// A copy is returned.
+	public long[] getImbalanceHistogram(){
+		return m_imbalanceHistogram.clone();
+	}
+    ///////////////////////////////////////////////////////////////////////////
+	public String toString(){
+		return String.format("%s: %,d elms, %,d comparisons, %,d moves, max depth %d, %d heap sorts, %.3f ms, imbalance %s",
+				m_sorter, m_numElms, m_comparisons, m_moves, m_maxDepth, m_heapSortFallbacks, m_nanos / 1e6,
+				Arrays.toString(m_imbalanceHistogram));
+	}
+    ///////////////////////////////////////////////////////////////////////////
+	// The following are called by the sorters as they go.
+
+	// Wraps the comparator, so that every call to it is counted.
+	<T> Comparator<T> counting(final Comparator<? super T> comparator){
+		return (a, b) -> {
+			m_comparisons++;
+			return comparator.compare(a, b);
+		};
+	}
+    ///////////////////////////////////////////////////////////////////////////
+	// The depth budget the sort started with, which lets partitioned(..) work out how deep it is.
+	void setDepthBudget(int depthBudget){
+		m_depthBudget = depthBudget;
+	}
+    ///////////////////////////////////////////////////////////////////////////
+	// A sub-array of numElms elements has been partitioned, leaving smallerSide elements still to sort
+	// on its smaller side. depthBudget is the budget left after this partition.
+	void partitioned(int numElms, int smallerSide, int depthBudget){
+		int depth  = m_depthBudget - depthBudget;
+		int bucket = (int) (2L * NUM_IMBALANCE_BUCKETS * smallerSide / numElms);
+
+		m_imbalanceHistogram[Math.min(bucket, NUM_IMBALANCE_BUCKETS - 1)]++;
+		m_maxDepth = Math.max(m_maxDepth, depth);
+	}
+    ///////////////////////////////////////////////////////////////////////////
+	void addComparisons(long comparisons){
+		m_comparisons += comparisons;
+	}
+    ///////////////////////////////////////////////////////////////////////////
+	void addMoves(long moves){
+		m_moves += moves;
+	}
+    ///////////////////////////////////////////////////////////////////////////
+	void heapSorted(){
+		m_heapSortFallbacks++;
+	}
+    ///////////////////////////////////////////////////////////////////////////
+	void finished(){
+		m_nanos = System.nanoTime() - m_startNanos;
+	}
+    ///////////////////////////////////////////////////////////////////////////
+	SortEvent getEvent(){
+		return m_event;
+	}
+    ///////////////////////////////////////////////////////////////////////////
+}
@@ -0,0 +1,244 @@
+import java.util.Comparator;
+
+// A stable sort for objects: elements which compare as equal keep their original order,
+// so re-sorting records which are already ordered by time, by say account, leaves each account's records in time order.
+// QSort can't promise that, and Arrays.sort(..)'s TimSort needs a scratch buffer of up to N/2 references.
+//
+// This is a merge sort which sorts short runs with a binary insertion sort, and then merges neighbouring runs bottom up.
+// A merge only uses a small fixed-size buffer (BUFFER_ELMS references by default, whatever N is):
+// when the shorter of the two runs fits in the buffer, it is copied out and merged back in the usual way.
+// Otherwise we split the merge in two, the same way QSort.adaptiveSort(..) does, by cutting the longer run in half,
+// finding where its middle element goes in the other run, and rotating the two middle pieces past each other.
+// The cuts are made so that equal elements never pass each other, which is what keeps it all stable.
+//
+// Descending order just reverses the comparator, rather than reversing the array afterwards,
+// since reversing would put equal elements in the opposite order.
+public class StableSort<T> {
+	private final T[]                   m_arr;
+	private final Comparator<? super T> m_comparator;
+	private final T[]                   m_buffer;
+
+	// the default size of the merge buffer, in elements.
+	public static final int BUFFER_ELMS = 512;
+
+	// the runs made by the insertion sort, before the merging starts.
+	private static final int INSERTION_RUN = 16;
+
+    //////////////////////////////////////////////////////////////////////////////
+    public  static <S extends Comparable<S>> void sort(S[] arr, boolean ascending){
+    	sort(arr, ascending, BUFFER_ELMS);
+    }
+    //////////////////////////////////////////////////////////////////////////////
+    // As sort(..) above, but with a merge buffer of at most maxBufferElms elements.
+    // 0 gives an entirely in-place sort, which still works, it just does more rotating.
+    public  static <S extends Comparable<S>> void sort(S[] arr, boolean ascending, int maxBufferElms){
+    	Comparator<S> comparator = Comparator.naturalOrder();
+
+    	sort(arr, ascending ? comparator : comparator.reversed(), maxBufferElms);
+    }
+    //////////////////////////////////////////////////////////////////////////////
+    // Sorts arr into the order given by comparator, keeping equal elements in their original order.
+    // For a stable descending order, pass in comparator.reversed().
+    public  static <S> void sort(S[] arr, Comparator<? super S> comparator){
+    	sort(arr, comparator, BUFFER_ELMS);
+    }
+    //////////////////////////////////////////////////////////////////////////////
+    public  static <S> void sort(S[] arr, Comparator<? super S> comparator, int maxBufferElms){
+
+    	if ( arr == null)
+    		return; // possibly could give a warning.
+
+    	// the merges never need more than half of the array in the buffer.
+    	int bufferElms = Math.max(0, Math.min(maxBufferElms, arr.length / 2));
+
+    	new StableSort<S>(arr, comparator, bufferElms).sortAll();
+    }
+    //////////////////////////////////////////////////////////////////////////////
+    @SuppressWarnings("unchecked")
+    private StableSort(T[] arr, Comparator<? super T> comparator, int bufferElms){
+    	m_arr        = arr;
+    	m_comparator = comparator;
+    	m_buffer     = (T[]) new Object[bufferElms];
+    }
+    //////////////////////////////////////////////////////////////////////////////
+    private void sortAll(){
+    	int numElms = m_arr.length;
+
+    	for( int low = 0; low < numElms; low += INSERTION_RUN)
+    		insertionSort(low, Math.min(low + INSERTION_RUN, numElms));
+
+    	for( int width = INSERTION_RUN; width < numElms; width *= 2) {
+    		for( int low = 0; low < numElms - width; low += 2 * width)
+    			merge(low, low + width, Math.min(low + 2 * width, numElms));
+    	}
+    }
+    //////////////////////////////////////////////////////////////////////////////
+    // Binary insertion sorts m_arr's elements between low inclusive and high exclusive.
+    // Each element goes after any elements equal to it, so it's stable.
+    private void insertionSort(int low, int high){
+
+    	for( int i = low + 1; i < high; i++) {
+    		T   elm = m_arr[i];
+    		int pos = upperBound(low, i, elm);
+
+    		if ( pos < i) {
+    			System.arraycopy(m_arr, pos, m_arr, pos + 1, i - pos);
+    			m_arr[pos] = elm;
+    		}
+    	}
+    }
+    //////////////////////////////////////////////////////////////////////////////
+    // Merges the sorted ranges [low, mid) and [mid, high).
+    // As in QSort.mergeInPlace(..), we first skip the elements which are already in place:
+    // the start of the left run that is <= m_arr[mid], and the end of the right run that is >= m_arr[mid-1].
+    private void merge(int low, int mid, int high){
+
+    	while ( low < mid && mid < high) {
+
+    		low  = upperBound(low, mid, m_arr[mid]);
+    		high = lowerBound(mid, high, m_arr[mid - 1]);
+
+    		if ( low == mid || mid == high)
+    			return;
+
+    		if ( mid - low <= m_buffer.length) {
+    			mergeForwards(low, mid, high);
+    			return;
+    		}
+    		if ( high - mid <= m_buffer.length) {
+    			mergeBackwards(low, mid, high);
+    			return;
+    		}
+
+    		// Neither run fits in the buffer, so split the merge in two.
+    		// The left elements equal to the cut element stay on its left, and the right ones on its right.
+    		int leftCut;
+    		int rightCut;
+
+    		if ( mid - low >= high - mid) {
+    			leftCut  = (low + mid) >>> 1;
+    			rightCut = lowerBound(mid, high, m_arr[leftCut]);
+    		} else {
+    			rightCut = (mid + high) >>> 1;
+    			leftCut  = upperBound(low, mid, m_arr[rightCut]);
+    		}
+    		rotate(leftCut, mid, rightCut);
+
+    		int newMid = leftCut + (rightCut - mid);
+
+    		// recurse into the smaller merge and loop round for the larger one.
+    		if ( newMid - low < high - newMid) {
+    			merge(low, leftCut, newMid);
+    			low = newMid;
+    			mid = rightCut;
+    		} else {
+    			merge(newMid, rightCut, high);
+    			high = newMid;
+    			mid  = leftCut;
+    		}
+    	}
+    }
+    //////////////////////////////////////////////////////////////////////////////
+    // Merges with the left run [low, mid) copied out into the buffer, filling m_arr from low upwards.
+    // The write index can never catch up with the right run's read index, as it's behind by the buffer's remaining elements.
+    // On a tie the left element goes first.
+    private void mergeForwards(int low, int mid, int high){
+    	int leftLen = mid - low;
+
+    	System.arraycopy(m_arr, low, m_buffer, 0, leftLen);
+
+    	int left  = 0;
+    	int right = mid;
+    	int dest  = low;
+
+    	while ( left < leftLen && right < high) {
+    		if ( m_comparator.compare(m_arr[right], m_buffer[left]) < 0)
+    			m_arr[dest++] = m_arr[right++];
+    		else
+    			m_arr[dest++] = m_buffer[left++];
+    	}
+    	System.arraycopy(m_buffer, left, m_arr, dest, leftLen - left); // whatever remains of the right run is already in place.
+    }
+    //////////////////////////////////////////////////////////////////////////////
+    // Merges with the right run [mid, high) copied out into the buffer, filling m_arr from high downwards.
+    // On a tie the right element goes last, i.e. is written first.
+    private void mergeBackwards(int low, int mid, int high){
+    	int rightLen = high - mid;
+
+    	System.arraycopy(m_arr, mid, m_buffer, 0, rightLen);
+
+    	int left  = mid - 1;
+    	int right = rightLen - 1;
+    	int dest  = high - 1;
+
+    	while ( left >= low && right >= 0) {
+    		if ( m_comparator.compare(m_buffer[right], m_arr[left]) < 0)
+    			m_arr[dest--] = m_arr[left--];
+    		else
+    			m_arr[dest--] = m_buffer[right--];
+    	}
+    	System.arraycopy(m_buffer, 0, m_arr, low, right + 1); // whatever remains of the left run is already in place.
+    }
+    //////////////////////////////////////////////////////////////////////////////
+    // Swaps the adjacent ranges [low, mid) and [mid, high).
+    // If the shorter one fits in the buffer, it's copied out and the other one is slid along,
+    // otherwise we reverse each of them and then the whole.
+    private void rotate(int low, int mid, int high){
+    	int leftLen  = mid - low;
+    	int rightLen = high - mid;
+
+    	if ( leftLen <= m_buffer.length && leftLen <= rightLen) {
+    		System.arraycopy(m_arr, low, m_buffer, 0, leftLen);
+    		System.arraycopy(m_arr, mid, m_arr, low, rightLen);
+    		System.arraycopy(m_buffer, 0, m_arr, low + rightLen, leftLen);
+
+    	} else if ( rightLen <= m_buffer.length) {
+    		System.arraycopy(m_arr, mid, m_buffer, 0, rightLen);
+    		System.arraycopy(m_arr, low, m_arr, low + rightLen, leftLen);
+    		System.arraycopy(m_buffer, 0, m_arr, low, rightLen);
+
+    	} else {
+    		reverseRange(low, mid);
+    		reverseRange(mid, high);
+    		reverseRange(low, high);
+    	}
+    }
+    //////////////////////////////////////////////////////////////////////////////
+    private void reverseRange(int low, int high){
+
+    	for( int i = low, j = high - 1; i < j; i++, j--) {
+    		T temp   = m_arr[i];
+    		m_arr[i] = m_arr[j];
+    		m_arr[j] = temp;
+    	}
+    }
+    //////////////////////////////////////////////////////////////////////////////
+    // The first index in the sorted range [low, high) whose element is > val, or high if there isn't one.
+    private int upperBound(int low, int high, T val){
+
+    	while ( low < high) {
+    		int mid = (low + high) >>> 1;
+
+    		if ( m_comparator.compare(m_arr[mid], val) > 0)
+    			high = mid;
+    		else
+    			low  = mid + 1;
+    	}
+    	return low;
+    }
+    //////////////////////////////////////////////////////////////////////////////
+    // The first index in the sorted range [low, high) whose element is >= val, or high if there isn't one.
+    private int lowerBound(int low, int high, T val){
+
+    	while ( low < high) {
+    		int mid = (low + high) >>> 1;
+
+    		if ( m_comparator.compare(m_arr[mid], val) >= 0)
+    			high = mid;
+    		else
+    			low  = mid + 1;
+    	}
+    	return low;
+    }
+    //////////////////////////////////////////////////////////////////////////////
+}
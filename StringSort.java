@@ -0,0 +1,371 @@
+// A sort for String[] (and other CharSequence arrays), which QSort.sort(..) hands String arrays over to.
+// The order is the same as String.compareTo(..), i.e. comparing the chars one at a time, with a prefix first.
+//
+// When QSort compares two strings, compareTo(..) starts again from their first char every time,
+// which is expensive when the strings share long prefixes, as URLs and file paths do.
+// Here we use a multikey q-sort (Bentley and Sedgewick), which partitions on the chars at a depth d,
+// that is known to be the length of the prefix which all of the strings in the sub-array share.
+// Rather than one char at a time, we partition on the "prefix word" of the WORD_CHARS chars from depth d,
+// packed into a long, so most comparisons are a single long comparison.
+// Each partition splits the strings into those whose word is less than the pivot's, equal to it, and greater.
+// The less and greater ones are partitioned again at the same depth, the equal ones at the next word,
+// so no char is ever looked at again once it is known to be equal.
+//
+// Once a sub-array is small enough, the prefix words are cached in a long[] which is moved along with the strings.
+// The partitioning then works on the cached words, and only goes back to the strings themselves
+// when moving on to the next word, so we're not chasing a pointer to every string on every pass.
+// The cache is bounded, by default to CACHE_ELMS words, however long the array is.
+//
+// The partitioning is the THREE_WAY scheme of QSort, so apart from the cache we only need one temp element.
+// Like QSort's own sorts, these are recorded by SortInstrumentation, under the sorter name "StringSort".
+public class StringSort<T extends CharSequence> {
+	private final T[]       m_arr;
+	private final long[]    m_words;          // the prefix word cache, m_words[i - m_cacheBase] is for m_arr[i].
+	private int             m_cacheBase = -1; // -1 while the sub-array being sorted is too big for the cache.
+	private final int       m_smallSortCutoff;
+	private final SortStats m_stats;          // null unless this sort is being instrumented.
+
+	// the default size of the prefix word cache, in elements.
+	public static final int CACHE_ELMS = 1 << 14;
+
+	// the number of chars in a prefix word. Each char takes 17 bits, as (char + 1),
+	// so that 0 can mean the string has ended, which puts a prefix before any longer string.
+	private static final int WORD_CHARS    = 3;
+	private static final int BITS_PER_CHAR = 17;
+
+    //////////////////////////////////////////////////////////////////////////////
+    public  static <S extends CharSequence> void sort(S[] arr, boolean ascending){
+    	sort(arr, ascending, CACHE_ELMS);
+    }
+    //////////////////////////////////////////////////////////////////////////////
+    // As sort(..) above, but caching at most maxCacheElms prefix words, 0 for no cache at all.
+    public  static <S extends CharSequence> void sort(S[] arr, boolean ascending, int maxCacheElms){
+
+    	if ( arr == null)
+    		return; // possibly could give a warning.
+
+    	int       cacheElms = Math.max(0, Math.min(maxCacheElms, arr.length));
+    	SortStats stats     = SortInstrumentation.start("StringSort", arr.length);
+
+    	new StringSort<S>(arr, cacheElms, stats).sortSub(0, arr.length, 0, IntroSort.depthBudget(arr.length));
+
+    	if ( ! ascending)
+    		reverseArr(arr);
+
+    	SortInstrumentation.finish(stats);
+    }
+    //////////////////////////////////////////////////////////////////////////////
+    // Sub-arrays of at most QSort's small sort cutoff are insertion sorted, see QSort.setSmallSortCutoff(..).
+    // It is read once here, so it can't change part way through a sort.
+    private StringSort(T[] arr, int cacheElms, SortStats stats){
+    	m_arr             = arr;
+    	m_words           = new long[cacheElms];
+    	m_smallSortCutoff = QSort.getSmallSortCutoff();
+    	m_stats           = stats;
+    }
+    //////////////////////////////////////////////////////////////////////////////
+    // Sorts m_arr's elements between low inclusive and high exclusive, which all share their first depth chars.
+    // depthBudget is the number of further partitioning levels at this depth before we fall back to heap sort.
+    private void sortSub(int low, int high, int depth, int depthBudget){
+    	boolean startedCache = false;
+
+    	while ( high > (low + 1)) {
+
+    		if ( high - low <= m_smallSortCutoff) {
+    			insertionSort(low, high, depth);
+    			break;
+    		}
+
+    		if ( m_cacheBase < 0 && high - low <= m_words.length) {  // from here on, everything we sort is within [low, high)
+    			m_cacheBase  = low;
+    			startedCache = true;
+    			cacheWords(low, high, depth);
+    		}
+
+    		if ( depthBudget-- == 0) {
+    			if ( m_stats != null)
+    				m_stats.heapSorted();
+
+    			heapSort(low, high, depth);
+    			break;
+    		}
+
+    		int  available = holePartitionTiesRight(low, high, depth);
+    		int  runEnd    = gatherPivotEquals(available, high, depth);
+    		long pivotWord = word(available, depth);
+
+    		int  lessSize  = available - low;
+    		int  equalSize = runEnd - available;
+    		int  moreSize  = high - runEnd;
+
+    		// if the pivot's word includes the end of the string, the equal strings are all the same.
+    		if ( (pivotWord & ((1L << BITS_PER_CHAR) - 1)) == 0)
+    			equalSize = 0;
+
+    		// We recurse into the two smaller parts and loop round for the largest,
+    		// so the stack never gets more than log2(N) calls deep, however long the shared prefixes.
+    		if ( equalSize >= lessSize && equalSize >= moreSize) {
+    			sortSub(low, available, depth, depthBudget);
+    			sortSub(runEnd, high, depth, depthBudget);
+    			low         = available;
+    			high        = runEnd;
+    			depthBudget = IntroSort.depthBudget(equalSize);
+
+    			// If every string had the same word, they may well share a much longer prefix, e.g. "https://www.",
+    			// so rather than a partitioning pass for every word of it, we find its length in one pass.
+    			if ( lessSize == 0 && moreSize == 0)
+    				depth = commonPrefixLength(low, high, depth + WORD_CHARS);
+    			else
+    				depth += WORD_CHARS;
+
+    			if ( m_cacheBase >= 0)
+    				cacheWords(low, high, depth);
+
+    		} else {
+    			if ( equalSize > 0)
+    				sortDeeper(available, runEnd, depth + WORD_CHARS);
+
+    			if ( lessSize < moreSize) {
+    				sortSub(low, available, depth, depthBudget);
+    				low  = runEnd;
+    			} else {
+    				sortSub(runEnd, high, depth, depthBudget);
+    				high = available;
+    			}
+    		}
+    	}
+
+    	if ( startedCache)
+    		m_cacheBase = -1;
+    }
+    //////////////////////////////////////////////////////////////////////////////
+    // Sorts the strings between low inclusive and high exclusive that share their first depth chars,
+    // having just moved on from the word before depth.
+    private void sortDeeper(int low, int high, int depth){
+
+    	if ( m_cacheBase >= 0)
+    		cacheWords(low, high, depth);
+
+    	sortSub(low, high, depth, IntroSort.depthBudget(high - low));
+    }
+    //////////////////////////////////////////////////////////////////////////////
+    // Partitions m_arr's elements between low inclusive and high exclusive (at least 2 elements) on their prefix words at depth,
+    // with the hole-moving scheme of QSort. Everything below the returned index has a word less than the pivot's,
+    // and everything above it a word greater or equal.
+    private int holePartitionTiesRight(int low, int high, int depth){
+    	int     pivotIdx       = idxOfMedianOfThree( low, (low + high) >>> 1, high - 1, depth);
+    	T       pivot          = m_arr[pivotIdx];
+    	long    pivotWord      = word(pivotIdx, depth);
+    	int     available      = low;
+    	boolean workingFromLow = false;
+    	int     lowIdx         = low;
+    	int     highIdx        = high;
+
+    	if ( pivotIdx != low)
+    		move(low, pivotIdx);
+
+    	while ( lowIdx < highIdx){
+
+    		if ( workingFromLow && word(++lowIdx, depth) >= pivotWord){
+    			move(lowIdx, available);
+    			available        = lowIdx;
+    			workingFromLow   = false;
+
+    		} else if ( !workingFromLow && pivotWord > word(--highIdx, depth)){
+    			move(highIdx, available);
+    			available        = highIdx;
+    			workingFromLow   = true;
+    		}
+    	}
+    	put(available, pivot, pivotWord);
+
+    	return available;
+    }
+    //////////////////////////////////////////////////////////////////////////////
+    // All the elements from (pivotIdx + 1) inclusive to high exclusive have a prefix word >= the pivot's.
+    // Moves the ones with an equal word down next to it, and returns the exclusive end of that run.
+    // As in QSort's gatherPivotEquals(..), this is another pass of the hole-moving scheme.
+    private int gatherPivotEquals(int pivotIdx, int high, int depth){
+    	int low = pivotIdx + 1;
+
+    	if ( low >= high)
+    		return low;
+
+    	long    pivotWord      = word(pivotIdx, depth);
+    	T       temp           = m_arr[low];
+    	long    tempWord       = word(low, depth);
+    	int     available      = low;
+    	boolean workingFromLow = false;
+    	int     lowIdx         = low;
+    	int     highIdx        = high;
+
+    	while ( lowIdx < highIdx - 1){
+
+    		if ( workingFromLow && word(++lowIdx, depth) > pivotWord){
+    			move(lowIdx, available);
+    			available        = lowIdx;
+    			workingFromLow   = false;
+
+    		} else if ( !workingFromLow && pivotWord >= word(--highIdx, depth)){
+    			move(highIdx, available);
+    			available        = highIdx;
+    			workingFromLow   = true;
+    		}
+    	}
+    	put(available, temp, tempWord);
+
+    	// temp went into the hole between the two groups, so we need to check which one it belongs to.
+    	return ( tempWord > pivotWord ? available : available + 1);
+    }
+    //////////////////////////////////////////////////////////////////////////////
+    // The prefix word at depth of the string at index i, from the cache if we are using it.
+    private long word(int i, int depth){
+
+    	if ( m_cacheBase >= 0)
+    		return m_words[i - m_cacheBase];
+    	else
+    		return prefixWord(m_arr[i], depth);
+    }
+    //////////////////////////////////////////////////////////////////////////////
+    // Moves the string at index from, and its cached word, to index to.
+    private void move(int from, int to){
+    	m_arr[to] = m_arr[from];
+
+    	if ( m_cacheBase >= 0)
+    		m_words[to - m_cacheBase] = m_words[from - m_cacheBase];
+    }
+    //////////////////////////////////////////////////////////////////////////////
+    private void put(int i, T str, long word){
+    	m_arr[i] = str;
+
+    	if ( m_cacheBase >= 0)
+    		m_words[i - m_cacheBase] = word;
+    }
+    //////////////////////////////////////////////////////////////////////////////
+    // Fills the cache with the prefix words at depth of m_arr's elements between low inclusive and high exclusive.
+    private void cacheWords(int low, int high, int depth){
+
+    	for( int i = low; i < high; i++)
+    		m_words[i - m_cacheBase] = prefixWord(m_arr[i], depth);
+    }
+    //////////////////////////////////////////////////////////////////////////////
+    // The length of the prefix that all of m_arr's elements between low inclusive and high exclusive share,
+    // given that they share at least the first depth chars.
+    private int commonPrefixLength(int low, int high, int depth){
+    	T   first = m_arr[low];
+    	int len   = first.length();
+
+    	for( int i = low + 1; i < high && len > depth; i++) {
+    		T   str = m_arr[i];
+    		int end = Math.min(len, str.length());
+    		int j   = depth;
+
+    		while ( j < end && str.charAt(j) == first.charAt(j))
+    			j++;
+
+    		len = j;
+    	}
+    	return Math.max(len, depth);
+    }
+    //////////////////////////////////////////////////////////////////////////////
+    // Insertion sorts m_arr's elements between low inclusive and high exclusive, comparing them from depth on.
+    // The sub-array is finished with after this, so we don't need to keep its cached words in step.
+    private void insertionSort(int low, int high, int depth){
+
+    	for( int i = low + 1; i < high; i++) {
+    		T   elm = m_arr[i];
+    		int j   = i;
+
+    		while ( j > low && compareFrom(m_arr[j - 1], elm, depth) > 0) {
+    			m_arr[j] = m_arr[j - 1];
+    			j--;
+    		}
+    		m_arr[j] = elm;
+    	}
+    }
+    ///////////////////////////////////////////////////////////////////////////
+    // An in-place heap sort of m_arr's elements between low inclusive and high exclusive, comparing them from depth on.
+    // It is only used once a sub-array has used up its depth budget.
+    private void heapSort(int low, int high, int depth){
+    	int numElms = high - low;
+
+    	for( int i = numElms / 2 - 1; i >= 0; i--)
+    		siftDown(low, i, numElms, depth);
+
+    	for( int last = numElms - 1; last > 0; last--){
+    		T temp            = m_arr[low];
+    		m_arr[low]        = m_arr[low + last];
+    		m_arr[low + last] = temp;
+    		siftDown(low, 0, last, depth);
+    	}
+    }
+    ///////////////////////////////////////////////////////////////////////////
+    private void siftDown(int low, int i, int numElms, int depth){
+    	T   elm   = m_arr[low + i];
+    	int child;
+
+    	while ( (child = 2 * i + 1) < numElms){
+
+    		if ( child + 1 < numElms && compareFrom(m_arr[low + child + 1], m_arr[low + child], depth) > 0)
+    			child++;
+
+    		if ( compareFrom(m_arr[low + child], elm, depth) <= 0)
+    			break;
+
+    		m_arr[low + i] = m_arr[low + child];
+    		i              = child;
+    	}
+    	m_arr[low + i] = elm;
+    }
+    ///////////////////////////////////////////////////////////////////////////
+    private int idxOfMedianOfThree( int i1, int i2, int i3, int depth){
+    	long w1 = word(i1, depth);
+    	long w2 = word(i2, depth);
+    	long w3 = word(i3, depth);
+
+    	if ( (w2 > w1) == (w1 > w3))
+    		return i1;
+    	else if ( (w1 > w2) == (w2 > w3))
+    		return i2;
+    	else
+    		return i3;
+    }
+    ///////////////////////////////////////////////////////////////////////////
+    // The WORD_CHARS chars of str from depth on, packed into a long so that the longs compare as the chars do.
+    // Past the end of str, each char is 0.
+    private static long prefixWord(CharSequence str, int depth){
+    	int  len  = str.length();
+    	long word = 0;
+
+    	for( int i = depth; i < depth + WORD_CHARS; i++)
+    		word = (word << BITS_PER_CHAR) | ( i < len ? str.charAt(i) + 1 : 0);
+
+    	return word;
+    }
+    ///////////////////////////////////////////////////////////////////////////
+    // Compares a and b as String.compareTo(..) would, given that their first depth chars are the same.
+    private static int compareFrom(CharSequence a, CharSequence b, int depth){
+    	int aLen = a.length();
+    	int bLen = b.length();
+    	int end  = Math.min(aLen, bLen);
+
+    	for( int i = depth; i < end; i++) {
+    		char aChar = a.charAt(i);
+    		char bChar = b.charAt(i);
+
+    		if ( aChar != bChar)
+    			return aChar - bChar;
+    	}
+    	return aLen - bLen;
+    }
+    ///////////////////////////////////////////////////////////////////////////
+    private static <S> void reverseArr(S[] arr){
+
+    	for( int i = 0, j = arr.length - 1; i < j; i++, j--) {
+    		S temp = arr[i];
+    		arr[i] = arr[j];
+    		arr[j] = temp;
+    	}
+    }
+    ///////////////////////////////////////////////////////////////////////////
+}
@@ -0,0 +1,131 @@
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShuffle;
+import jdk.incubator.vector.VectorSpecies;
+
+// The partition kernel behind PartitionScheme.SIMD in QSortDouble, using the jdk.incubator.vector API.
+// It is kept in its own source root, simd/, which is only compiled along with --add-modules jdk.incubator.vector,
+// and QSortDouble loads it by name (see QSortDouble.loadSimdKernel()) only when the JVM was also started with the module.
+// Otherwise this class is never loaded, or isn't even there, and SIMD falls back to the scalar partition.
+//
+// Rather than one element at a time behind unpredictable branches, we compare a whole vector against the pivot,
+// and use the comparison mask to look up a shuffle that packs the lanes below the pivot to the front and the rest behind them.
+// The packed vector is then stored twice: at the low write index, where its first trueCount() lanes are kept,
+// and ending at the high write index, where its last lanes are kept. The lanes each store writes beyond what it keeps
+// land in space that the other store, or a later one, overwrites.
+//
+// To keep that in place, we start by holding one vector from each end in registers, which leaves 2 vectors' worth of free space,
+// and always load the next vector from the end with the least free space, so both ends always have room for a whole vector.
+// It is the same idea as the hole-moving partition, just with holes a vector wide.
+final class DoubleSimdPartition implements DoublePartitionKernel {
+
+	// The widest vectors this CPU supports, e.g. 4 doubles with AVX2 or 8 with AVX-512.
+	private static final VectorSpecies<Double>   SPECIES = DoubleVector.SPECIES_PREFERRED;
+	private static final int                     LANES   = SPECIES.length();
+
+	// SHUFFLES[mask] packs the lanes that are set in mask to the front, keeping their order.
+	// The table has 2^LANES entries, so we only make it for up to 8 lanes.
+	private static final VectorShuffle<Double>[] SHUFFLES = ( LANES >= 4 && LANES <= 8 ? makeShuffles() : null);
+
+    ///////////////////////////////////////////////////////////////////////////
+	// Vectors of fewer than 4 doubles aren't worth the shuffling, so then QSortDouble stays with the scalar partition.
+	// (As are vectors of more than 8, which no x86 CPU has, as the shuffle table would get too big.)
+	public boolean isWorthwhile(){
+		return SHUFFLES != null;
+	}
+    ///////////////////////////////////////////////////////////////////////////
+	// Here "more than 2 vectors' worth" means more than 2 * LANES elements.
+	public int partition(double[] arr, int low, int high, double pivot){
+		DoubleVector heldLow   = DoubleVector.fromArray(SPECIES, arr, low);
+		DoubleVector heldHigh  = DoubleVector.fromArray(SPECIES, arr, high - LANES);
+		int          readLow   = low + LANES;
+		int          readHigh  = high - LANES;
+		int          writeLow  = low;
+		int          writeHigh = high;
+
+		while ( readHigh - readLow >= LANES) {
+			DoubleVector vec;
+
+			if ( readLow - writeLow <= writeHigh - readHigh) {
+				vec      = DoubleVector.fromArray(SPECIES, arr, readLow);
+				readLow += LANES;
+			} else {
+				readHigh -= LANES;
+				vec       = DoubleVector.fromArray(SPECIES, arr, readHigh);
+			}
+
+			VectorMask<Double> below    = vec.compare(VectorOperators.LT, pivot);
+			int                numBelow = below.trueCount();
+			DoubleVector       packed   = pack(vec, below);
+
+			packed.intoArray(arr, writeLow);
+			packed.intoArray(arr, writeHigh - LANES);
+			writeLow  += numBelow;
+			writeHigh -= LANES - numBelow;
+		}
+
+		// fewer than LANES elements are left unread. These are done one at a time, 
+		// but again reading from the end with the least free space, so that both ends have room.
+		while ( readLow < readHigh) {
+			double elm = ( readLow - writeLow <= writeHigh - readHigh ? arr[readLow++] : arr[--readHigh]);
+
+			if ( elm < pivot)
+				arr[writeLow++]  = elm;
+			else
+				arr[--writeHigh] = elm;
+		}
+
+		// and finally the two vectors we held back.
+		VectorMask<Double> below    = heldLow.compare(VectorOperators.LT, pivot);
+		int                numBelow = below.trueCount();
+		DoubleVector       packed   = pack(heldLow, below);
+
+		packed.intoArray(arr, writeLow);
+		packed.intoArray(arr, writeHigh - LANES);
+		writeLow  += numBelow;
+		writeHigh -= LANES - numBelow;
+
+		below    = heldHigh.compare(VectorOperators.LT, pivot);
+		numBelow = below.trueCount();
+		packed   = pack(heldHigh, below);
+
+		packed.intoArray(arr, writeLow);
+		packed.intoArray(arr, writeHigh - LANES);
+		writeLow += numBelow;
+
+		return writeLow;
+	}
+    ///////////////////////////////////////////////////////////////////////////
+	// Rearranges vec so that the lanes set in below come first. With at most 8 lanes the mask's bits fit an int.
+	private static DoubleVector pack(DoubleVector vec, VectorMask<Double> below){
+		int mask = (int) below.toLong();
+
+		return vec.rearrange(SHUFFLES[mask]);
+	}
+    ///////////////////////////////////////////////////////////////////////////
+	@SuppressWarnings("unchecked")
+	private static VectorShuffle<Double>[] makeShuffles(){
+		VectorShuffle<Double>[] shuffles = (VectorShuffle<Double>[]) new VectorShuffle<?>[1 << LANES];
+		int[]                   lanes    = new int[LANES];
+
+		for( int mask = 0; mask < shuffles.length; mask++) {
+			int next = 0;
+
+			for( int lane = 0; lane < LANES; lane++)
+				if ( (mask & (1 << lane)) != 0)
+					lanes[next++] = lane;
+
+			for( int lane = 0; lane < LANES; lane++)
+				if ( (mask & (1 << lane)) == 0)
+					lanes[next++] = lane;
+
+			shuffles[mask] = VectorShuffle.fromArray(SPECIES, lanes, 0);
+		}
+		return shuffles;
+	}
+    ///////////////////////////////////////////////////////////////////////////
+	// public, for QSortDouble to create it by reflection.
+	public DoubleSimdPartition(){
+	}
+}